@@ -0,0 +1,190 @@
+/**
+ * Keccak-f[1600] on the JDK Vector API, permuting several independent states at once with state j
+ * held in lane j of 25 vectors of the preferred species (8 states with AVX-512, 4 with AVX2).
+ * Built separately from src because it needs JDK 17+ and the jdk.incubator.vector module:
+ *   javac --add-modules jdk.incubator.vector -cp out -d out src-vector/KeccakVector.java
+ * and run with --add-modules jdk.incubator.vector. SHAKE loads it reflectively when it is present
+ * and uses it for batched sponges whenever the preferred species holds at least four lanes.
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import static jdk.incubator.vector.VectorOperators.ROL;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+public class KeccakVector implements SHAKE.Permutation {
+
+    private static final VectorSpecies<Long> S = LongVector.SPECIES_PREFERRED;
+
+    // the states transposed so that lane k of state j is at t[k * width + j]
+    private static final ThreadLocal<long[]> scratch = ThreadLocal.withInitial(() -> new long[25 * S.length()]);
+
+    /**
+     * A single state gains nothing from the lanes, so it takes the scalar rounds.
+     */
+    @Override
+    public void keccakf(long[] a) {
+        SHAKE.sha3_keccakf_scalar(a);
+    }
+
+    @Override
+    public int width() {
+        return S.length();
+    }
+
+    /**
+     * Groups that fill less than half of the lanes are cheaper on the scalar rounds.
+     */
+    @Override
+    public void keccakf(long[][] states, int n) {
+        int w = S.length();
+        if (2 * n < w) {
+            SHAKE.SCALAR.keccakf(states, n);
+            return;
+        }
+        long[] t = scratch.get();
+        for (int j = 0; j < n; j++) {
+            long[] a = states[j];
+            for (int k = 0; k < 25; k++) {
+                t[k * w + j] = a[k];
+            }
+        }
+        permute(t, w);
+        for (int j = 0; j < n; j++) {
+            long[] a = states[j];
+            for (int k = 0; k < 25; k++) {
+                a[k] = t[k * w + j];
+            }
+        }
+    }
+
+    /**
+     * The 24 rounds on every lane of the transposed states, with axy holding lane x + 5y.
+     */
+    private static void permute(long[] t, int w) {
+        LongVector a00 = LongVector.fromArray(S, t, 0);
+        LongVector a10 = LongVector.fromArray(S, t, w);
+        LongVector a20 = LongVector.fromArray(S, t, 2 * w);
+        LongVector a30 = LongVector.fromArray(S, t, 3 * w);
+        LongVector a40 = LongVector.fromArray(S, t, 4 * w);
+        LongVector a01 = LongVector.fromArray(S, t, 5 * w);
+        LongVector a11 = LongVector.fromArray(S, t, 6 * w);
+        LongVector a21 = LongVector.fromArray(S, t, 7 * w);
+        LongVector a31 = LongVector.fromArray(S, t, 8 * w);
+        LongVector a41 = LongVector.fromArray(S, t, 9 * w);
+        LongVector a02 = LongVector.fromArray(S, t, 10 * w);
+        LongVector a12 = LongVector.fromArray(S, t, 11 * w);
+        LongVector a22 = LongVector.fromArray(S, t, 12 * w);
+        LongVector a32 = LongVector.fromArray(S, t, 13 * w);
+        LongVector a42 = LongVector.fromArray(S, t, 14 * w);
+        LongVector a03 = LongVector.fromArray(S, t, 15 * w);
+        LongVector a13 = LongVector.fromArray(S, t, 16 * w);
+        LongVector a23 = LongVector.fromArray(S, t, 17 * w);
+        LongVector a33 = LongVector.fromArray(S, t, 18 * w);
+        LongVector a43 = LongVector.fromArray(S, t, 19 * w);
+        LongVector a04 = LongVector.fromArray(S, t, 20 * w);
+        LongVector a14 = LongVector.fromArray(S, t, 21 * w);
+        LongVector a24 = LongVector.fromArray(S, t, 22 * w);
+        LongVector a34 = LongVector.fromArray(S, t, 23 * w);
+        LongVector a44 = LongVector.fromArray(S, t, 24 * w);
+
+        for (int ir = 0; ir < SHAKE.KECCAKF_ROUNDS; ir++) {
+            // Theta
+            LongVector c0 = a00.lanewise(XOR, a01).lanewise(XOR, a02).lanewise(XOR, a03).lanewise(XOR, a04);
+            LongVector c1 = a10.lanewise(XOR, a11).lanewise(XOR, a12).lanewise(XOR, a13).lanewise(XOR, a14);
+            LongVector c2 = a20.lanewise(XOR, a21).lanewise(XOR, a22).lanewise(XOR, a23).lanewise(XOR, a24);
+            LongVector c3 = a30.lanewise(XOR, a31).lanewise(XOR, a32).lanewise(XOR, a33).lanewise(XOR, a34);
+            LongVector c4 = a40.lanewise(XOR, a41).lanewise(XOR, a42).lanewise(XOR, a43).lanewise(XOR, a44);
+            LongVector d0 = c4.lanewise(XOR, c1.lanewise(ROL, 1));
+            LongVector d1 = c0.lanewise(XOR, c2.lanewise(ROL, 1));
+            LongVector d2 = c1.lanewise(XOR, c3.lanewise(ROL, 1));
+            LongVector d3 = c2.lanewise(XOR, c4.lanewise(ROL, 1));
+            LongVector d4 = c3.lanewise(XOR, c0.lanewise(ROL, 1));
+
+            // Rho Pi
+            LongVector b00 = a00.lanewise(XOR, d0);
+            LongVector b10 = a11.lanewise(XOR, d1).lanewise(ROL, 44);
+            LongVector b20 = a22.lanewise(XOR, d2).lanewise(ROL, 43);
+            LongVector b30 = a33.lanewise(XOR, d3).lanewise(ROL, 21);
+            LongVector b40 = a44.lanewise(XOR, d4).lanewise(ROL, 14);
+            LongVector b01 = a30.lanewise(XOR, d3).lanewise(ROL, 28);
+            LongVector b11 = a41.lanewise(XOR, d4).lanewise(ROL, 20);
+            LongVector b21 = a02.lanewise(XOR, d0).lanewise(ROL, 3);
+            LongVector b31 = a13.lanewise(XOR, d1).lanewise(ROL, 45);
+            LongVector b41 = a24.lanewise(XOR, d2).lanewise(ROL, 61);
+            LongVector b02 = a10.lanewise(XOR, d1).lanewise(ROL, 1);
+            LongVector b12 = a21.lanewise(XOR, d2).lanewise(ROL, 6);
+            LongVector b22 = a32.lanewise(XOR, d3).lanewise(ROL, 25);
+            LongVector b32 = a43.lanewise(XOR, d4).lanewise(ROL, 8);
+            LongVector b42 = a04.lanewise(XOR, d0).lanewise(ROL, 18);
+            LongVector b03 = a40.lanewise(XOR, d4).lanewise(ROL, 27);
+            LongVector b13 = a01.lanewise(XOR, d0).lanewise(ROL, 36);
+            LongVector b23 = a12.lanewise(XOR, d1).lanewise(ROL, 10);
+            LongVector b33 = a23.lanewise(XOR, d2).lanewise(ROL, 15);
+            LongVector b43 = a34.lanewise(XOR, d3).lanewise(ROL, 56);
+            LongVector b04 = a20.lanewise(XOR, d2).lanewise(ROL, 62);
+            LongVector b14 = a31.lanewise(XOR, d3).lanewise(ROL, 55);
+            LongVector b24 = a42.lanewise(XOR, d4).lanewise(ROL, 39);
+            LongVector b34 = a03.lanewise(XOR, d0).lanewise(ROL, 41);
+            LongVector b44 = a14.lanewise(XOR, d1).lanewise(ROL, 2);
+
+            // Chi
+            a00 = b00.lanewise(XOR, b10.not().and(b20));
+            a10 = b10.lanewise(XOR, b20.not().and(b30));
+            a20 = b20.lanewise(XOR, b30.not().and(b40));
+            a30 = b30.lanewise(XOR, b40.not().and(b00));
+            a40 = b40.lanewise(XOR, b00.not().and(b10));
+            a01 = b01.lanewise(XOR, b11.not().and(b21));
+            a11 = b11.lanewise(XOR, b21.not().and(b31));
+            a21 = b21.lanewise(XOR, b31.not().and(b41));
+            a31 = b31.lanewise(XOR, b41.not().and(b01));
+            a41 = b41.lanewise(XOR, b01.not().and(b11));
+            a02 = b02.lanewise(XOR, b12.not().and(b22));
+            a12 = b12.lanewise(XOR, b22.not().and(b32));
+            a22 = b22.lanewise(XOR, b32.not().and(b42));
+            a32 = b32.lanewise(XOR, b42.not().and(b02));
+            a42 = b42.lanewise(XOR, b02.not().and(b12));
+            a03 = b03.lanewise(XOR, b13.not().and(b23));
+            a13 = b13.lanewise(XOR, b23.not().and(b33));
+            a23 = b23.lanewise(XOR, b33.not().and(b43));
+            a33 = b33.lanewise(XOR, b43.not().and(b03));
+            a43 = b43.lanewise(XOR, b03.not().and(b13));
+            a04 = b04.lanewise(XOR, b14.not().and(b24));
+            a14 = b14.lanewise(XOR, b24.not().and(b34));
+            a24 = b24.lanewise(XOR, b34.not().and(b44));
+            a34 = b34.lanewise(XOR, b44.not().and(b04));
+            a44 = b44.lanewise(XOR, b04.not().and(b14));
+
+            // Iota
+            a00 = a00.lanewise(XOR, SHAKE.keccakf_rndc[ir]);
+        }
+
+        a00.intoArray(t, 0);
+        a10.intoArray(t, w);
+        a20.intoArray(t, 2 * w);
+        a30.intoArray(t, 3 * w);
+        a40.intoArray(t, 4 * w);
+        a01.intoArray(t, 5 * w);
+        a11.intoArray(t, 6 * w);
+        a21.intoArray(t, 7 * w);
+        a31.intoArray(t, 8 * w);
+        a41.intoArray(t, 9 * w);
+        a02.intoArray(t, 10 * w);
+        a12.intoArray(t, 11 * w);
+        a22.intoArray(t, 12 * w);
+        a32.intoArray(t, 13 * w);
+        a42.intoArray(t, 14 * w);
+        a03.intoArray(t, 15 * w);
+        a13.intoArray(t, 16 * w);
+        a23.intoArray(t, 17 * w);
+        a33.intoArray(t, 18 * w);
+        a43.intoArray(t, 19 * w);
+        a04.intoArray(t, 20 * w);
+        a14.intoArray(t, 21 * w);
+        a24.intoArray(t, 22 * w);
+        a34.intoArray(t, 23 * w);
+        a44.intoArray(t, 24 * w);
+    }
+}
@@ -4,15 +4,22 @@
  */
 
 
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class Asymmetric {
 	
 	static int choice;
+
+	// decrypted messages up to this many bytes are also printed to the console
+	private static final int PRINT_LIMIT = 1 << 16;
+
 	 public static void start(){
 		 while (true) {
 			 Console.printMainScreenAsymmetric();
@@ -84,91 +91,127 @@ public class Asymmetric {
 	 }
 	 
 	 public static void encryptUnderKey(boolean file){ //2. Encrypt a given data file under the(Schnorr/DHIES) public key
-		 byte[] m = {};
-		 byte[] kByte = {};
-		 Ed448GPoint key = new Ed448GPoint();
+		 ByteBuffer m;
+		 PublicKeyCache.DecodedKey key = null;
 		 
 		 if (file) {
-			 boolean fnf = true;
-			 while (fnf) {
-				 try {
-					 String fileName = Console.getFileName();
-					 m = Files.readAllBytes(Paths.get(fileName));
-					 fnf = false;
-				 } catch (IOException e) {
-					 System.out.println("!The file does not exist!");
-				 }
-			 }
+			 m = mapInput(Paths.get("encrypted.txt"));
 		 }
 		 else {
-			 m = Console.getText().getBytes();
+			 m = ByteBuffer.wrap(Console.getText().getBytes());
 		 }
 
 		 System.out.println("\n- Requirement 2: Key File -");
-		 String fileNameKey;
-
 		 boolean fnf = true;
 		 while (fnf) {
 			 try {
-				 fileNameKey = Console.getFileName();
-				 kByte = Files.readAllBytes(Paths.get(fileNameKey));
-				 key = Ed448GPoint.pointFromBytes(kByte);
+				 key = PublicKeyCache.get(MappedIO.read(Paths.get(Console.getFileName())));
 				 fnf = false;
 			 } catch (IOException e) {
 				 System.out.println("!The file does not exist!");
 			 }
 		 }
-		 
-		 byte [] mEncrypted = SchnorrDHIES.encrypt(m, key);
-		 writeBytesEncrypted(mEncrypted);
+		 if (key == null) {
+			 System.out.println("File does not contain a valid public key");
+			 return;
+		 }
+
+		 if (!file) {
+			 byte[] mEncrypted = new byte[m.remaining() + SchnorrDHIES.OVERHEAD];
+			 SchnorrDHIES.encrypt(m, key, ByteBuffer.wrap(mEncrypted));
+			 writeBytesEncrypted(mEncrypted);
+			 return;
+		 }
+		 try {
+			 encryptFile(m, key, Paths.get("encrypted.txt"));
+			 System.out.println("Cryptogram written to encrypted.txt");
+		 } catch (IOException e) {
+			 System.out.println("Could not write to file");
+		 }
 	 }
 
-	 public static void decrypt() { //3. Decrypt a given data file asymmetrically. 
-		 byte[] m = {};
-		 boolean fnf = true;
-		 while (fnf) {
-			 try {
-				 System.out.println("\n- Requirement 1: Encrypted Message File -");
-				 String fileName = Console.getFileName();
-				 m = Files.readAllBytes(Paths.get(fileName));
-				 fnf = false;
-			 } catch (IOException e) {
-				 System.out.println("!The file does not exist!");
-			 }
+	 /**
+	  * Writes the cryptogram of m straight into a mapping of a file next to out, then moves it over out,
+	  * so m may hold the contents of out itself, as long as it is not a mapping of out (see MappedIO.mapInput).
+	  */
+	 static void encryptFile(ByteBuffer m, PublicKeyCache.DecodedKey key, Path out) throws IOException {
+		 Path partial = MappedIO.partial(out);
+		 try {
+			 MappedByteBuffer c = MappedIO.create(partial, (long) m.remaining() + SchnorrDHIES.OVERHEAD);
+			 SchnorrDHIES.encrypt(m, key, c);
+			 c.force();
+			 MappedIO.replace(partial, out);
+		 } finally {
+			 Files.deleteIfExists(partial);
 		 }
+	 }
+
+	 public static void decrypt() { //3. Decrypt a given data file asymmetrically. 
+		 System.out.println("\n- Requirement 1: Encrypted Message File -");
+		 ByteBuffer cryptogram = mapInput(Paths.get("decrypted.txt"));
 		 
 		 System.out.println("\n- Requirement 2: Password -");
 		 String pw = Console.getPassword();
-		 byte[] decrypted = SchnorrDHIES.decrypt(m, pw); 
-		 if (decrypted == null) { return; }
+		 int length = SchnorrDHIES.messageLength(cryptogram);
+		 if (length < 0) {
+			 System.out.println("File does not contain a cryptogram");
+			 return;
+		 }
 
-		 try (FileOutputStream fos = new FileOutputStream("decrypted.txt")) {
-			 fos.write(decrypted);
+		 ByteBuffer decrypted;
+		 try {
+			 decrypted = decryptFile(cryptogram, pw, Paths.get("decrypted.txt"));
+		 }
+		 catch (IOException ioe) {
+			 System.out.println("Could not write to file");
+			 return;
+		 }
+		 if (decrypted == null) {
+			 return;
 		 }
-		 catch (IOException ioe) { System.out.println("Could not write to file"); }
 
-		 String s = new String(decrypted, StandardCharsets.UTF_8);
-		 System.out.println(s);
+		 if (decrypted.remaining() <= PRINT_LIMIT) {
+			 System.out.println(StandardCharsets.UTF_8.decode(decrypted));
+		 } else {
+			 System.out.println("Decrypted to decrypted.txt");
+		 }
+	 }
+
+	 /**
+	  * Decrypts into a mapping of a file next to out and moves it over out only if the cryptogram is authentic,
+	  * so the cryptogram may hold the contents of out itself, as long as it is not a mapping of out
+	  * (see MappedIO.mapInput), and out is left untouched on failure.
+	  * @return the mapped plaintext, or null if the cryptogram was rejected
+	  */
+	 static ByteBuffer decryptFile(ByteBuffer cryptogram, String pw, Path out) throws IOException {
+		 int length = SchnorrDHIES.messageLength(cryptogram);
+		 if (length < 0) {
+			 return null;
+		 }
+		 Path partial = MappedIO.partial(out);
+		 try {
+			 MappedByteBuffer decrypted = MappedIO.create(partial, length);
+			 if (!SchnorrDHIES.decrypt(cryptogram, pw, decrypted.duplicate())) {
+				 return null;
+			 }
+			 decrypted.force();
+			 MappedIO.replace(partial, out);
+			 return decrypted;
+		 } finally {
+			 Files.deleteIfExists(partial);
+		 }
 	 }
 
 	 public static void generateSignature(boolean file){ //4. Generate a signature
-		 byte[] m = {};
+		 ByteBuffer m;
 		 if (file) {
-			 boolean fnf = true;
-			 while (fnf) {
-				 try {
-					 String fileName = Console.getFileName();
-					 m = Files.readAllBytes(Paths.get(fileName));
-					 fnf = false;
-				 } catch (IOException e) {
-					 System.out.println("!The file does not exist!");
-				 }
-			 }
+			 m = mapInput(Paths.get("signature.txt"));
 		 }
 		 else {
-			 m = Console.getText().getBytes();
-			 try (FileOutputStream fos = new FileOutputStream("message.txt")) {
-				 fos.write(m);
+			 byte[] text = Console.getText().getBytes();
+			 m = ByteBuffer.wrap(text);
+			 try {
+				 MappedIO.write(Paths.get("message.txt"), text);
 			 }
 			 catch (IOException ioe) { System.out.println("Could not write to file"); }
 		 }
@@ -181,31 +224,17 @@ public class Asymmetric {
 	 
 	 
 	 public static void verify(){ //5. Verify a signature
-		 byte[] m = {};
 		 byte[] signature = {};
-		 byte[] kByte = {};
-		 
-		 Ed448GPoint v = new Ed448GPoint();
+		 PublicKeyCache.DecodedKey v = null;
 
+		 System.out.println("\n- Requirement 1: Message File -");
+		 ByteBuffer m = mapInput();
 		 boolean fnf = true;
-		 while (fnf) {
-			 try {
-
-				 System.out.println("\n- Requirement 1: Message File -");
-				 String fileName = Console.getFileName();
-				 m = Files.readAllBytes(Paths.get(fileName));
-				 fnf = false;
-
-			 } catch (IOException e) {
-				 System.out.println("!The file does not exist!");
-			 }
-		 }
-		 fnf = true;
 		 while (fnf) {
 			 try {
 				 System.out.println("\n- Requirement 2: Signature File -");
 				 String fileNameSignature = Console.getFileName();
-				 signature = Files.readAllBytes(Paths.get(fileNameSignature));
+				 signature = MappedIO.read(Paths.get(fileNameSignature));
 
 				 fnf = false;
 			 } catch (IOException e) {
@@ -217,13 +246,16 @@ public class Asymmetric {
 			 try {
 				 System.out.println("\n- Requirement 3: Public Key File -");
 				 String fileNamePublicKey = Console.getFileName();
-				 kByte = Files.readAllBytes(Paths.get(fileNamePublicKey));
-				 v = Ed448GPoint.pointFromBytes(kByte);
+				 v = PublicKeyCache.get(MappedIO.read(Paths.get(fileNamePublicKey)));
 				 fnf = false;
 			 } catch (IOException e) {
 				 System.out.println("!The file does not exist!");
 			 }
 		 }
+		 if (v == null) {
+			 System.out.println("File does not contain a valid public key");
+			 return;
+		 }
 
 		 boolean verify = SchnorrDHIES.verify(signature, m, v);
 		 
@@ -234,10 +266,36 @@ public class Asymmetric {
 			 System.out.println("It is an invalid signature");
 		 }
 	 }
+
+	 /**
+	  * Asks for file names until one can be mapped into memory.
+	  * @return the mapped contents of the chosen file
+	  */
+	 private static ByteBuffer mapInput() {
+		 return mapInput(null);
+	 }
+
+	 /**
+	  * Asks for file names until one can be read, mapping it unless it is the output file itself.
+	  * @param output the file the input will be transformed into, or null
+	  * @return the contents of the chosen file
+	  */
+	 private static ByteBuffer mapInput(Path output) {
+		 while (true) {
+			 try {
+				 Path path = Paths.get(Console.getFileName());
+				 return output == null ? MappedIO.map(path) : MappedIO.mapInput(path, output);
+			 } catch (NoSuchFileException e) {
+				 System.out.println("!The file does not exist!");
+			 } catch (IOException e) {
+				 System.out.println("!" + e.getMessage() + "!");
+			 }
+		 }
+	 }
 	 
 	 private static void writeBytesPublicKey(byte[] bytes) {
-		 try (FileOutputStream fos = new FileOutputStream("publicKey.txt")) {
-			 fos.write(bytes);
+		 try {
+			 MappedIO.write(Paths.get("publicKey.txt"), bytes);
 		 }
 		 catch (IOException ioe) { System.out.println("Could not write hash to file"); }
 		 for (byte b : bytes) {
@@ -247,8 +305,8 @@ public class Asymmetric {
 	 }
 	 
 	 private static void writeBytesPrivateKey(byte[] bytes) {
-		 try (FileOutputStream fos = new FileOutputStream("privateKey.txt")) {
-			 fos.write(bytes);
+		 try {
+			 MappedIO.write(Paths.get("privateKey.txt"), bytes);
 		 }
 		 catch (IOException ioe) { System.out.println("Could not write hash to file"); }
 		 for (byte b : bytes) {
@@ -258,8 +316,8 @@ public class Asymmetric {
 	 }
 	 
 	 private static void writeBytesEncrypted(byte[] bytes) {
-		 try (FileOutputStream fos = new FileOutputStream("encrypted.txt")) {
-			 fos.write(bytes);
+		 try {
+			 MappedIO.write(Paths.get("encrypted.txt"), bytes);
 		 }
 		 catch (IOException ioe) { System.out.println("Could not write hash to file"); }
 		 for (byte b : bytes) {
@@ -269,8 +327,8 @@ public class Asymmetric {
 	 }
 	 
 	 private static void writeBytesSign(byte[] bytes) {
-		 try (FileOutputStream fos = new FileOutputStream("signature.txt")) {
-			 fos.write(bytes);
+		 try {
+			 MappedIO.write(Paths.get("signature.txt"), bytes);
 		 }
 		 catch (IOException ioe) { System.out.println("Could not write hash to file"); }
 		 for (byte b : bytes) {
@@ -0,0 +1,282 @@
+/**
+ * Headless bulk encryption and decryption of directory trees with a bounded worker pool
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BulkCrypt {
+    // appended to encrypted file names, and stripped again on decryption
+    public static final String SUFFIX = ".kmx";
+
+    // the passphrase is read from this environment variable unless --passphrase-file is given
+    static final String PASSPHRASE_ENV = "KMACXOF256_PASSPHRASE";
+
+    public static final long DEFAULT_MAX_IN_FLIGHT = 256L << 20;
+
+    // bytes in flight are counted in units of this size, so that the semaphore permits fit in an int
+    private static final int UNIT = 1 << 10;
+
+    public enum Mode { ENCRYPT, DECRYPT }
+
+    /**
+     * The outcome for one file.
+     */
+    public static final class Result {
+        public final Path source;
+        public final Path target;
+        public final boolean ok;
+        public final long bytes;
+        public final String message;
+
+        Result(Path source, Path target, boolean ok, long bytes, String message) {
+            this.source = source;
+            this.target = target;
+            this.ok = ok;
+            this.bytes = bytes;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return (ok ? "OK   " : "FAIL ") + source + " -> " + target + " (" + bytes + " bytes)"
+                    + (message.isEmpty() ? "" : ": " + message);
+        }
+    }
+
+    /**
+     * Command line entry point:
+     * (encrypt | decrypt) source-dir target-dir [--threads n] [--max-in-flight-mb n] [--passphrase-file file]
+     * Without --passphrase-file the passphrase is taken from the KMACXOF256_PASSPHRASE environment variable.
+     * @param args the command line arguments
+     * @return the process exit status: 0 if every file succeeded, 1 if any failed, 2 on bad usage
+     */
+    public static int cli(String[] args) {
+        if (args.length < 3 || !(args[0].equals("encrypt") || args[0].equals("decrypt"))) {
+            return usage();
+        }
+        Mode mode = args[0].equals("encrypt") ? Mode.ENCRYPT : Mode.DECRYPT;
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        byte[] pw = null;
+        try {
+            for (int i = 3; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    return usage();
+                }
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--max-in-flight-mb":
+                        maxInFlight = Long.parseLong(args[i + 1]) << 20;
+                        break;
+                    case "--passphrase-file":
+                        pw = firstLine(Files.readAllBytes(Paths.get(args[i + 1])));
+                        break;
+                    default:
+                        return usage();
+                }
+            }
+        } catch (NumberFormatException e) {
+            return usage();
+        } catch (IOException e) {
+            System.out.println("Could not read the passphrase file: " + e.getMessage());
+            return 2;
+        }
+        if (pw == null) {
+            String env = System.getenv(PASSPHRASE_ENV);
+            if (env == null) {
+                System.out.println("No passphrase: use --passphrase-file or set " + PASSPHRASE_ENV);
+                return 2;
+            }
+            pw = env.getBytes();
+        }
+        if (threads <= 0 || maxInFlight <= 0) {
+            return usage();
+        }
+
+        List<Result> results;
+        try {
+            results = run(mode, source, target, pw, threads, maxInFlight);
+        } catch (IOException e) {
+            System.out.println("Could not walk " + source + ": " + e.getMessage());
+            return 1;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return 2;
+        }
+        long failed = results.stream().filter(r -> !r.ok).count();
+        System.out.println(results.size() + " files, " + (results.size() - failed) + " succeeded, " + failed + " failed");
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Encrypts or decrypts every regular file under source into the same relative path under target,
+     * printing one status line per file as it completes. Encryption appends SUFFIX to every file name
+     * and decryption strips it. A file's output only appears once it is complete, and for decryption
+     * once every segment is authentic.
+     * @param mode whether to encrypt or decrypt
+     * @param source the directory to read
+     * @param target the directory to write, created as needed
+     * @param pw the passphrase
+     * @param threads the number of worker threads
+     * @param maxInFlight the most bytes of input queued or being processed at a time; a larger file
+     *                    is still processed, alone
+     * @return the result for every file, in the order the files were found
+     * @throws IOException if source cannot be walked
+     * @throws IllegalArgumentException if source is a directory and target is inside it or equal to it,
+     *                                  where outputs would be walked again or overwrite their inputs
+     */
+    public static List<Result> run(Mode mode, Path source, Path target, byte[] pw, int threads, long maxInFlight)
+            throws IOException {
+        source = source.toAbsolutePath().normalize();
+        if (Files.isDirectory(source) && target.toAbsolutePath().normalize().startsWith(source)) {
+            throw new IllegalArgumentException("The target directory " + target + " must not be inside " + source);
+        }
+        // a single file is processed like a directory holding only that file
+        Path root = Files.isDirectory(source) ? source : source.getParent();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        int units = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlight / UNIT));
+        Semaphore inFlight = new Semaphore(units);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                Path out = target.resolve(outputName(mode, root.relativize(file)));
+                long size;
+                try {
+                    size = Files.size(file);
+                } catch (IOException e) {
+                    Result result = new Result(file, out, false, 0, e.toString());
+                    System.out.println(result);
+                    futures.add(CompletableFuture.completedFuture(result));
+                    continue;
+                }
+                int permits = (int) Math.min(units, Math.max(1, (size + UNIT - 1) / UNIT));
+                inFlight.acquireUninterruptibly(permits);
+                try {
+                    futures.add(pool.submit(() -> {
+                        try {
+                            Result result = process(mode, file, out, size, pw);
+                            System.out.println(result);
+                            return result;
+                        } finally {
+                            inFlight.release(permits);
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    inFlight.release(permits);
+                    throw e;
+                }
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(outcome(futures.get(i), files.get(i), mode, root, target));
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Result outcome(Future<Result> future, Path file, Mode mode, Path root, Path target) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            return new Result(file, target.resolve(outputName(mode, root.relativize(file))), false, 0,
+                    String.valueOf(e.getCause()));
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Result process(Mode mode, Path file, Path out, long size, byte[] pw) {
+        Path partial = MappedIO.partial(out);
+        try {
+            if (out.getParent() != null) {
+                Files.createDirectories(out.getParent());
+            }
+            boolean ok;
+            try (InputStream in = MappedIO.inputStream(file);
+                 OutputStream os = MappedIO.outputStream(partial)) {
+                if (mode == Mode.ENCRYPT) {
+                    SymmetricStream.encrypt(in, os, pw, SymmetricStream.DEFAULT_SEGMENT_SIZE);
+                    ok = true;
+                } else {
+                    ok = SymmetricStream.decrypt(in, os, pw);
+                }
+            }
+            if (!ok) {
+                Files.deleteIfExists(partial);
+                return new Result(file, out, false, size, "not an authentic segmented cryptogram under this passphrase");
+            }
+            MappedIO.replace(partial, out);
+            return new Result(file, out, true, size, "");
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // the original failure is the one worth reporting
+            }
+            return new Result(file, out, false, size, e.toString());
+        }
+    }
+
+    static Path outputName(Mode mode, Path relative) {
+        String name = relative.getFileName().toString();
+        if (mode == Mode.ENCRYPT) {
+            name = name + SUFFIX;
+        } else if (name.endsWith(SUFFIX) && name.length() > SUFFIX.length()) {
+            name = name.substring(0, name.length() - SUFFIX.length());
+        }
+        return relative.resolveSibling(name);
+    }
+
+    private static byte[] firstLine(byte[] file) {
+        String s = new String(file, StandardCharsets.UTF_8);
+        int end = s.indexOf('\n');
+        if (end >= 0) {
+            s = s.substring(0, end);
+        }
+        return s.replace("\r", "").getBytes();
+    }
+
+    private static int usage() {
+        System.out.println("Usage: java Main (encrypt | decrypt) <source-dir> <target-dir>"
+                + " [--threads n] [--max-in-flight-mb n] [--passphrase-file file]");
+        System.out.println("The passphrase is read from --passphrase-file or the " + PASSPHRASE_ENV
+                + " environment variable.");
+        return 2;
+    }
+}
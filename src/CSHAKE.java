@@ -0,0 +1,57 @@
+/**
+ * SHAKE128, SHAKE256, cSHAKE128 and cSHAKE256 as per NIST FIPS 202 and SP 800-185
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+public class CSHAKE {
+
+    public static byte[] SHAKE128(byte[] X, int L) {
+        return cSHAKE128(X, L, emptyBytes, emptyBytes);
+    }
+
+    public static byte[] SHAKE256(byte[] X, int L) {
+        return cSHAKE256(X, L, emptyBytes, emptyBytes);
+    }
+
+    /**
+     * Compute cSHAKE128(X, L, N, S).
+     * @param X the input
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param N the function name
+     * @param S the customization string
+     * @return L bits of output
+     */
+    public static byte[] cSHAKE128(byte[] X, int L, byte[] N, byte[] S) {
+        SHAKE shake = new SHAKE();
+        shake.cinit128(N, S);
+        shake.update(X, 0, X.length);
+        return squeeze(shake, L);
+    }
+
+    /**
+     * Compute cSHAKE256(X, L, N, S).
+     * @param X the input
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param N the function name
+     * @param S the customization string
+     * @return L bits of output
+     */
+    public static byte[] cSHAKE256(byte[] X, int L, byte[] N, byte[] S) {
+        SHAKE shake = new SHAKE();
+        shake.cinit256(N, S);
+        shake.update(X, 0, X.length);
+        return squeeze(shake, L);
+    }
+
+    private static byte[] squeeze(SHAKE shake, int L) {
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        byte[] val = new byte[L >>> 3];
+        shake.xof();
+        shake.out(val, L >>> 3);
+        return val;
+    }
+
+    private final static byte[] emptyBytes = {};
+}
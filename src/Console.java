@@ -74,6 +74,37 @@ public class Console {
 		 final String pw = sc.nextLine();
 		 return pw;
 	 }
+	 /**
+	  * Asks whether a file hash should use ParallelHash256 on all cores instead of KMACXOF256.
+	  * Note that the two give different digests for the same file.
+	  *
+	  * @return true if ParallelHash256 was chosen
+	  */
+	 public static boolean useParallelHash() {
+		 return yesNo("Use multi-core ParallelHash256 instead of KMACXOF256? (y/n)");
+	 }
+
+	 /**
+	  * Asks whether the segments of a symmetric cryptogram should be sealed or opened on all cores.
+	  * The cryptogram is the same either way.
+	  *
+	  * @return true if the parallel engine was chosen
+	  */
+	 public static boolean useParallelEncryption() {
+		 return yesNo("Encrypt/decrypt the segments on all cores? (y/n)");
+	 }
+
+	 private static boolean yesNo(String question) {
+		 System.out.println();
+		 System.out.println(question);
+		 String answer = sc.nextLine();
+		 while (!answer.equals("y") && !answer.equals("n")) {
+			 System.out.println("!WRONG INPUT, TRY AGAIN by entering a letter 'y' or 'n'");
+			 answer = sc.nextLine();
+		 }
+		 return answer.equals("y");
+	 }
+
 	 /**
 	  * This function takes in a input from the user and checks if it is a valid input.
 	  * If it is not, it will ask the user to input again.
@@ -0,0 +1,97 @@
+/**
+ * Fixed-base scalar multiplication by the generator G with a precomputed table of
+ * j * 16^i * G for j = 1..8, built once on first use and shared by all threads
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.math.BigInteger;
+
+final class Ed448BaseTable {
+    // the points of row i are 1, 2, ..., 8 times 16^i * G
+    private static final int ROW = 8;
+
+    // the NAF width for the G half of a double-scalar multiplication, whose odd multiples are precomputed up to 63G
+    static final int WNAF_WIDTH = 7;
+
+    private Ed448BaseTable() {
+    }
+
+    /**
+     * The table is built the first time a class initializer runs this holder, which the JVM does exactly once.
+     */
+    private static final class Holder {
+        static final Ed448Projective[][] TABLE = build();
+    }
+
+    private static final class OddHolder {
+        static final Ed448Projective[] ODD = buildOdd();
+    }
+
+    /**
+     * @return G, 3G, 5G, ..., 63G
+     */
+    private static Ed448Projective[] buildOdd() {
+        Ed448Projective[] odd = new Ed448Projective[1 << (WNAF_WIDTH - 2)];
+        Ed448Projective G = new Ed448Projective(SchnorrDHIES.G);
+        Ed448Projective G2 = new Ed448Projective().dbl(G);
+        odd[0] = G;
+        for (int i = 1; i < odd.length; i++) {
+            odd[i] = new Ed448Projective().add(odd[i - 1], G2);
+        }
+        Ed448Projective.normalize(odd);
+        return odd;
+    }
+
+    private static Ed448Projective[][] build() {
+        Ed448Projective[][] table = new Ed448Projective[Ed448Scalar.RADIX16_DIGITS][ROW];
+        Ed448Projective[] all = new Ed448Projective[Ed448Scalar.RADIX16_DIGITS * ROW];
+        Ed448Projective base = new Ed448Projective(SchnorrDHIES.G);
+        for (int i = 0; i < Ed448Scalar.RADIX16_DIGITS; i++) {
+            table[i][0] = new Ed448Projective(base);
+            for (int j = 1; j < ROW; j++) {
+                table[i][j] = new Ed448Projective().add(table[i][j - 1], base);
+            }
+            // 16^(i+1) * G = 2 * (8 * 16^i * G)
+            base.dbl(table[i][ROW - 1]);
+            System.arraycopy(table[i], 0, all, i * ROW, ROW);
+        }
+        Ed448Projective.normalize(all);
+        return table;
+    }
+
+    /**
+     * Computes s*G as the sum of one table point per radix 16 digit of s, with no doublings.
+     * Every digit reads the whole row, so the memory access pattern and running time do not depend on s.
+     * @param s a scalar, which may be secret
+     * @return s*G
+     */
+    static Ed448GPoint multiply(BigInteger s) {
+        return multiplyProjective(s).toAffine();
+    }
+
+    static Ed448Projective multiplyProjective(BigInteger s) {
+        Ed448Projective[][] table = Holder.TABLE;
+        int[] e = Ed448Scalar.radix16(s);
+        Ed448Projective.Scratch scratch = new Ed448Projective.Scratch();
+        Ed448Projective V = new Ed448Projective();
+        Ed448Projective T = new Ed448Projective();
+        for (int i = 0; i < e.length; i++) {
+            Ed448Window.select(T, table[i], e[i]);
+            V.add(V, T, scratch);
+        }
+        return V;
+    }
+
+    /**
+     * Computes a*G + b*Q in variable time for public scalars, interleaving a width-7 NAF of a mod r over the
+     * precomputed odd multiples of G with a width-4 NAF of b over the window of Q, on one chain of doublings.
+     * @param a a scalar
+     * @param b a scalar of any size and sign
+     * @param Q the window of Q
+     * @return a*G + b*Q
+     */
+    static Ed448Projective multiplyAdd(BigInteger a, BigInteger b, Ed448Window Q) {
+        return Ed448Window.straus(Ed448Scalar.wnaf(a.mod(Ed448GPoint.r), WNAF_WIDTH), OddHolder.ODD,
+                Ed448Scalar.wnaf(b, Ed448Window.WNAF_WIDTH), Q.odd);
+    }
+}
@@ -12,6 +12,9 @@ public class Ed448GPoint {
 
     public static final BigInteger p = new BigInteger("2").pow(448).subtract(new BigInteger("2").pow(224)).subtract(BigInteger.ONE);
     public static final BigInteger d = new BigInteger("-39081");
+    // -d, small enough for GF448.mulSmall
+    static final int D = 39081;
+
     public static final BigInteger r = new BigInteger("2").pow(446).subtract(new BigInteger("13818066809895115352007386748515426880336692474882178609894547503885"));
 
     /**
@@ -41,20 +44,16 @@ public class Ed448GPoint {
     public Ed448GPoint(BigInteger x, boolean lsb) {
         this.x = x;
 
-        // 1 - x^2
-        BigInteger numerator = BigInteger.ONE.subtract(x.multiply(x));
-        numerator = numerator.mod(p);
-
-        // 1 + 39081x^2
-        BigInteger denominator = x.multiply(x).multiply(new BigInteger("39081"));
-        denominator = BigInteger.ONE.add(denominator);
-        denominator = denominator.modInverse(p);
-
-        BigInteger radicand = numerator.multiply(denominator);
-        radicand = radicand.mod(p);
-
-        this.y = sqrt(radicand, p, lsb);
+        // y^2 = (1 - x^2) / (1 + 39081x^2), with a single square root and inversion over GF448
+        GF448 xx = new GF448().sqr(new GF448(x));
+        GF448 numerator = new GF448().sub(new GF448(1), xx);
+        GF448 denominator = new GF448().mulSmall(xx, D);
+        denominator.add(denominator, new GF448(1));
+        GF448 radicand = denominator.inv(denominator).mul(denominator, numerator);
 
+        GF448 root = new GF448().sqrtCandidate(radicand);
+        root.cmov(new GF448().neg(root), root.lsb() != lsb); // correct the lsb
+        this.y = new GF448().sqr(root).equals(radicand) ? root.toBigInteger() : null;
     }
 
     /**
@@ -108,14 +107,16 @@ public class Ed448GPoint {
         if (this.x == null || this.y == null) {
             return false;
         }
+        GF448 xx = new GF448().sqr(new GF448(this.x));
+        GF448 yy = new GF448().sqr(new GF448(this.y));
 
         // x^2 + y^2
-        BigInteger lhs = this.x.pow(2).add(this.y.pow(2));
-        lhs = lhs.mod(p);
+        GF448 lhs = new GF448().add(xx, yy);
 
-        // 1 + d * x^2 * y^2
-        BigInteger rhs = BigInteger.ONE.add(d.multiply(this.x.pow(2)).multiply(this.y.pow(2)));
-        rhs = rhs.mod(p);
+        // 1 + d * x^2 * y^2 = 1 - 39081 * x^2 * y^2
+        GF448 rhs = new GF448().mul(xx, yy);
+        rhs.mulSmall(rhs, D);
+        rhs.sub(new GF448(1), rhs);
         return lhs.equals(rhs);
     }
 
@@ -135,45 +136,53 @@ public class Ed448GPoint {
      * @return the sum of the two points
      */
     public Ed448GPoint add(Ed448GPoint b) {
-        BigInteger numerator = (this.x.multiply(b.y)).add(this.y.multiply(b.x));
-        numerator = numerator.mod(p);
-
-        BigInteger denominator = BigInteger.ONE.add(d.multiply(this.x).multiply(b.x).multiply(this.y).multiply(b.y));
-        denominator = denominator.modInverse(p);
-
-        BigInteger x = (numerator.multiply(denominator)).mod(p);
-
-
-        numerator = (this.y.multiply(b.y)).subtract(this.x.multiply(b.x));
-        numerator = numerator.mod(p);
-
-        denominator = BigInteger.ONE.subtract(d.multiply(this.x).multiply(b.x).multiply(this.y).multiply(b.y));
-        denominator = denominator.modInverse(p);
-
-        BigInteger y = (numerator.multiply(denominator)).mod(p);
-
-        return new Ed448GPoint(x, y);
+        GF448 x1 = new GF448(this.x);
+        GF448 y1 = new GF448(this.y);
+        GF448 x2 = new GF448(b.x);
+        GF448 y2 = new GF448(b.y);
+
+        GF448 xNumerator = new GF448().mul(x1, y2);
+        xNumerator.add(xNumerator, new GF448().mul(y1, x2));
+        GF448 xx = new GF448().mul(x1, x2);
+        GF448 yy = new GF448().mul(y1, y2);
+        GF448 yNumerator = new GF448().sub(yy, xx);
+
+        // t = d * x1 * x2 * y1 * y2, and the denominators are 1 + t and 1 - t
+        GF448 t = new GF448().mul(xx, yy);
+        t.mulSmall(t, D).neg(t);
+        GF448 one = new GF448(1);
+        GF448 xDenominator = new GF448().add(one, t);
+        GF448 yDenominator = new GF448().sub(one, t);
+
+        // invert both denominators at once: 1/a = b / (ab) and 1/b = a / (ab)
+        GF448 inverse = new GF448().mul(xDenominator, yDenominator);
+        inverse.inv(inverse);
+        GF448 x = new GF448().mul(xNumerator, yDenominator);
+        x.mul(x, inverse);
+        GF448 y = new GF448().mul(yNumerator, xDenominator);
+        y.mul(y, inverse);
+
+        return new Ed448GPoint(x.toBigInteger(), y.toBigInteger());
     }
 
     /**
-     * Multiplies this point with a given scalar s.
-     * Implemented from the pseudocode for Double-and-add, Iterative algorithm, index increasing from this page:
-     * https://en.wikipedia.org/wiki/Elliptic_curve_point_multiplication
+     * Multiplies this point with a given scalar s, in variable time with a width-4 NAF.
+     * Use multiplyConstantTime for secret scalars.
      * @param s a scalar
      * @return the product of this point and the given scalar s
      */
     public Ed448GPoint multiply(BigInteger s) {
-        // s = (sk sk-1 ... s1 s0)2, sk = 1.
-        Ed448GPoint V = new Ed448GPoint();
-        Ed448GPoint temp = new Ed448GPoint(this.x, this.y); // initialize with sk*P, which is simply P
-        String bits = s.toString(2);
-        for (int i = bits.length() - 1; i >= 0; i--) { // scan over the k bits of s
-            if ((bits.charAt(i) == '1')) { // test the i-th bit of s
-                V = V.add(temp);               // invoke the Edwards point addition formula
-            }
-            temp = temp.add(temp);          // invoke the Edwards point addition formula
-        }
-        return V;   // now finally V = s*P
+        return new Ed448Window(new Ed448Projective(this)).multiply(s).toAffine();
+    }
+
+    /**
+     * Multiplies this point with a given secret scalar s mod r, with a running time and
+     * memory access pattern that do not depend on s.
+     * @param s a scalar
+     * @return the product of this point and s mod r
+     */
+    public Ed448GPoint multiplyConstantTime(BigInteger s) {
+        return new Ed448Window(new Ed448Projective(this)).multiplyConstantTime(s).toAffine();
     }
 
     /**
@@ -0,0 +1,178 @@
+/**
+ * Mutable Edwards curve points in projective coordinates (X : Y : Z), standing for the affine point (X/Z, Y/Z),
+ * so that additions and doublings need no field inversion
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+final class Ed448Projective {
+    final GF448 X = new GF448();
+    final GF448 Y = new GF448(1);
+    final GF448 Z = new GF448(1);
+
+    /**
+     * Creates the neutral point (0 : 1 : 1).
+     */
+    Ed448Projective() {
+    }
+
+    /**
+     * Creates the point (x : y : 1).
+     * @param P an affine point
+     */
+    Ed448Projective(Ed448GPoint P) {
+        X.set(new GF448(P.x));
+        Y.set(new GF448(P.y));
+    }
+
+    Ed448Projective(Ed448Projective P) {
+        set(P);
+    }
+
+    Ed448Projective set(Ed448Projective P) {
+        X.set(P.X);
+        Y.set(P.Y);
+        Z.set(P.Z);
+        return this;
+    }
+
+    /**
+     * this = P + Q with the unified addition formula of RFC 8032, section 5.2.4.
+     * It is complete because d is not a square, so it also holds for P = Q and for the neutral point.
+     */
+    Ed448Projective add(Ed448Projective P, Ed448Projective Q) {
+        return add(P, Q, new Scratch());
+    }
+
+    /**
+     * this = P + Q, with the temporaries taken from scratch instead of allocated.
+     */
+    Ed448Projective add(Ed448Projective P, Ed448Projective Q, Scratch scratch) {
+        GF448[] t = scratch.t;
+        GF448.Scratch f = scratch.field;
+        GF448 A = t[0].mul(P.Z, Q.Z, f);
+        GF448 B = t[1].sqr(A, f);
+        GF448 C = t[2].mul(P.X, Q.X, f);
+        GF448 D = t[3].mul(P.Y, Q.Y, f);
+        // E = d * C * D = -39081 * C * D
+        GF448 E = t[4].mul(C, D, f);
+        E.mulSmall(E, Ed448GPoint.D);
+        GF448 F = t[5].add(B, E);
+        GF448 G = t[6].sub(B, E);
+        GF448 H = t[7].add(P.X, P.Y);
+        H.mul(H, t[8].add(Q.X, Q.Y), f);
+
+        // X3 = A * F * (H - C - D), Y3 = A * G * (D - C), Z3 = F * G
+        H.sub(H, C).sub(H, D);
+        X.mul(A, F, f).mul(X, H, f);
+        Y.mul(A, G, f).mul(Y, D.sub(D, C), f);
+        Z.mul(F, G, f);
+        return this;
+    }
+
+    /**
+     * this = 2P with the doubling formula of RFC 8032, section 5.2.4, which is cheaper than add(P, P).
+     */
+    Ed448Projective dbl(Ed448Projective P) {
+        return dbl(P, new Scratch());
+    }
+
+    /**
+     * this = 2P, with the temporaries taken from scratch instead of allocated.
+     */
+    Ed448Projective dbl(Ed448Projective P, Scratch scratch) {
+        GF448[] t = scratch.t;
+        GF448.Scratch f = scratch.field;
+        GF448 B = t[0].add(P.X, P.Y);
+        B.sqr(B, f);
+        GF448 C = t[1].sqr(P.X, f);
+        GF448 D = t[2].sqr(P.Y, f);
+        GF448 E = t[3].add(C, D);
+        GF448 H = t[4].sqr(P.Z, f);
+        GF448 J = t[5].sub(E, H.add(H, H));
+
+        // X3 = (B - E) * J, Y3 = E * (C - D), Z3 = E * J
+        X.mul(B.sub(B, E), J, f);
+        Y.mul(E, C.sub(C, D), f);
+        Z.mul(E, J, f);
+        return this;
+    }
+
+    /**
+     * this = -P
+     */
+    Ed448Projective neg(Ed448Projective P) {
+        X.neg(P.X);
+        Y.set(P.Y);
+        Z.set(P.Z);
+        return this;
+    }
+
+    /**
+     * @return true if this and Q are the same point, comparing X1 Z2 = X2 Z1 and Y1 Z2 = Y2 Z1
+     */
+    boolean equals(Ed448Projective Q) {
+        return new GF448().mul(X, Q.Z).equals(new GF448().mul(Q.X, Z))
+                & new GF448().mul(Y, Q.Z).equals(new GF448().mul(Q.Y, Z));
+    }
+
+    /**
+     * this = P if flag is set, otherwise this is unchanged, without branching on flag.
+     */
+    Ed448Projective cmov(Ed448Projective P, boolean flag) {
+        X.cmov(P.X, flag);
+        Y.cmov(P.Y, flag);
+        Z.cmov(P.Z, flag);
+        return this;
+    }
+
+    /**
+     * Scales every point to Z = 1 with a single inversion (Montgomery's trick), so that the
+     * points can be stored compactly or compared coordinate by coordinate.
+     * @param points projective points, none with Z = 0
+     */
+    static void normalize(Ed448Projective[] points) {
+        if (points.length == 0) {
+            return;
+        }
+        // prefix[i] = Z0 * Z1 * ... * Zi
+        GF448[] prefix = new GF448[points.length];
+        prefix[0] = new GF448(points[0].Z);
+        for (int i = 1; i < points.length; i++) {
+            prefix[i] = new GF448().mul(prefix[i - 1], points[i].Z);
+        }
+        GF448 inverse = new GF448().inv(prefix[points.length - 1]);
+        for (int i = points.length - 1; i >= 0; i--) {
+            GF448 zInverse = i == 0 ? new GF448(inverse) : new GF448().mul(inverse, prefix[i - 1]);
+            inverse.mul(inverse, points[i].Z);
+            points[i].X.mul(points[i].X, zInverse);
+            points[i].Y.mul(points[i].Y, zInverse);
+            points[i].Z.set(1);
+        }
+    }
+
+    /**
+     * @return the affine point (X/Z, Y/Z), at the cost of one inversion
+     */
+    Ed448GPoint toAffine() {
+        GF448 inverse = new GF448().inv(Z);
+        return new Ed448GPoint(new GF448().mul(X, inverse).toBigInteger(), new GF448().mul(Y, inverse).toBigInteger());
+    }
+
+    /**
+     * Temporaries for add and dbl, created once per scalar multiplication and passed down to every
+     * step of it; not safe to share between threads.
+     */
+    static final class Scratch {
+        final GF448[] t = new GF448[9];
+        final GF448.Scratch field = new GF448.Scratch();
+
+        // the negation of a table entry, for digits below zero
+        final Ed448Projective negated = new Ed448Projective();
+
+        Scratch() {
+            for (int i = 0; i < t.length; i++) {
+                t[i] = new GF448();
+            }
+        }
+    }
+}
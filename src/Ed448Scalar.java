@@ -0,0 +1,101 @@
+/**
+ * Recodings of scalars mod r into the digit strings that drive scalar multiplication,
+ * read straight from the scalar's bytes
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.math.BigInteger;
+
+final class Ed448Scalar {
+    // r < 2^446, so a reduced scalar fits in 56 bytes and 112 radix 16 digits
+    static final int BYTES = 56;
+    static final int RADIX16_DIGITS = 2 * BYTES;
+
+    private Ed448Scalar() {
+    }
+
+    /**
+     * @param s a scalar, which may be negative or at least r
+     * @return s mod r as 56 little-endian bytes
+     */
+    static byte[] toBytes(BigInteger s) {
+        byte[] be = s.mod(Ed448GPoint.r).toByteArray();
+        byte[] le = new byte[BYTES];
+        for (int i = 0; i < le.length && i < be.length; i++) {
+            le[i] = be[be.length - 1 - i];
+        }
+        return le;
+    }
+
+    /**
+     * Recodes s mod r as 112 signed digits e[i] in [-8, 8] with s = sum e[i] * 16^i.
+     * The same operations run for every scalar, so the recoding does not leak secret scalars through timing.
+     * @param s a scalar
+     * @return the digits, least significant first
+     */
+    static int[] radix16(BigInteger s) {
+        byte[] b = toBytes(s);
+        int[] e = new int[RADIX16_DIGITS];
+        for (int i = 0; i < BYTES; i++) {
+            e[2 * i] = b[i] & 15;
+            e[2 * i + 1] = (b[i] >>> 4) & 15;
+        }
+        // move each digit from [0, 15] to [-8, 7], carrying into the next; the top digit is at most 3 + 1
+        int carry = 0;
+        for (int i = 0; i < RADIX16_DIGITS - 1; i++) {
+            e[i] += carry;
+            carry = (e[i] + 8) >> 4;
+            e[i] -= carry << 4;
+        }
+        e[RADIX16_DIGITS - 1] += carry;
+        return e;
+    }
+
+    /**
+     * Recodes s in width-w non-adjacent form: digits that are zero or odd with |e[i]| < 2^(w-1),
+     * with at most one nonzero digit in any w consecutive positions and s = sum e[i] * 2^i.
+     * The bits are read from the bytes of |s|, and the running time depends on s.
+     * @param s a scalar of any size and sign
+     * @param w the window width, from 2 to 8
+     * @return the digits, least significant first, one more than the bit length of |s|
+     */
+    static int[] wnaf(BigInteger s, int w) {
+        int sign = s.signum() < 0 ? -1 : 1;
+        s = s.abs();
+        byte[] be = s.toByteArray();
+        int bits = s.bitLength() + 1;
+        int[] naf = new int[bits];
+        int width = 1 << w;
+        int carry = 0;
+        int pos = 0;
+        while (pos < bits) {
+            // the w bits starting at pos, plus the carry from the previous digit
+            int window = carry;
+            for (int j = 0; j < w; j++) {
+                window += bit(be, pos + j) << j;
+            }
+            if ((window & 1) == 0) {
+                // the effective bit here is 0, and the carry moves on to the next position
+                pos++;
+                continue;
+            }
+            if (window < width / 2) {
+                carry = 0;
+                naf[pos] = sign * window;
+            } else {
+                carry = 1;
+                naf[pos] = sign * (window - width);
+            }
+            pos += w;
+        }
+        return naf;
+    }
+
+    /**
+     * @return bit i of the big-endian two's complement bytes be, or 0 past the top
+     */
+    private static int bit(byte[] be, int i) {
+        int index = be.length - 1 - (i >>> 3);
+        return index < 0 ? 0 : (be[index] >>> (i & 7)) & 1;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Variable-base scalar multiplication from a small table of the multiples P, 2P, ..., 8P of one point,
+ * with a width-4 NAF for public scalars and fixed radix 16 windows for secret ones
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.math.BigInteger;
+
+final class Ed448Window {
+    // multiples[j] = (j + 1) * P
+    static final int SIZE = 8;
+
+    // width-4 NAF digits are odd and below 8 in absolute value, so they only use the odd entries
+    static final int WNAF_WIDTH = 4;
+
+    final Ed448Projective[] multiples = new Ed448Projective[SIZE];
+
+    // odd[i] = (2i + 1) * P, the entries a width-4 NAF digit can select
+    final Ed448Projective[] odd = new Ed448Projective[SIZE / 2];
+
+    /**
+     * Computes P, 2P, ..., 8P.
+     * @param P the point
+     */
+    Ed448Window(Ed448Projective P) {
+        multiples[0] = new Ed448Projective(P);
+        multiples[1] = new Ed448Projective().dbl(P);
+        for (int j = 2; j < SIZE; j++) {
+            multiples[j] = (j & 1) == 1
+                    ? new Ed448Projective().dbl(multiples[j / 2])
+                    : new Ed448Projective().add(multiples[j - 1], P);
+        }
+        for (int i = 0; i < odd.length; i++) {
+            odd[i] = multiples[2 * i];
+        }
+    }
+
+    /**
+     * Computes s*P in variable time, for scalars that are public, such as the h of a signature being verified.
+     * @param s a scalar of any size and sign
+     * @return s*P
+     */
+    Ed448Projective multiply(BigInteger s) {
+        int[] naf = Ed448Scalar.wnaf(s, WNAF_WIDTH);
+        Ed448Projective.Scratch scratch = new Ed448Projective.Scratch();
+        Ed448Projective V = new Ed448Projective();
+        for (int i = naf.length - 1; i >= 0; i--) {
+            V.dbl(V, scratch);
+            addDigit(V, naf, i, odd, scratch);
+        }
+        return V;
+    }
+
+    /**
+     * Computes a*P + b*Q in variable time with Straus' method: both NAFs are scanned together, so the
+     * two products share one chain of doublings. For public scalars, such as those of signature verification.
+     * @param a a scalar of any size and sign
+     * @param P the window of P
+     * @param b a scalar of any size and sign
+     * @param Q the window of Q
+     * @return a*P + b*Q
+     */
+    static Ed448Projective multiplyAdd(BigInteger a, Ed448Window P, BigInteger b, Ed448Window Q) {
+        return straus(Ed448Scalar.wnaf(a, WNAF_WIDTH), P.odd, Ed448Scalar.wnaf(b, WNAF_WIDTH), Q.odd);
+    }
+
+    /**
+     * @param na NAF digits of the first scalar
+     * @param oddA oddA[i] = (2i + 1) times the first point, covering every digit of na
+     * @param nb NAF digits of the second scalar
+     * @param oddB oddB[i] = (2i + 1) times the second point, covering every digit of nb
+     * @return the sum of both products
+     */
+    static Ed448Projective straus(int[] na, Ed448Projective[] oddA, int[] nb, Ed448Projective[] oddB) {
+        Ed448Projective.Scratch scratch = new Ed448Projective.Scratch();
+        Ed448Projective V = new Ed448Projective();
+        for (int i = Math.max(na.length, nb.length) - 1; i >= 0; i--) {
+            V.dbl(V, scratch);
+            addDigit(V, na, i, oddA, scratch);
+            addDigit(V, nb, i, oddB, scratch);
+        }
+        return V;
+    }
+
+    /**
+     * V = V + naf[i] * odd[0], where naf[i] is zero or odd and odd[j] = (2j + 1) * odd[0]; digits past the end are zero.
+     */
+    private static void addDigit(Ed448Projective V, int[] naf, int i, Ed448Projective[] odd,
+                                 Ed448Projective.Scratch scratch) {
+        if (i >= naf.length || naf[i] == 0) {
+            return;
+        }
+        int e = naf[i];
+        if (e > 0) {
+            V.add(V, odd[(e - 1) / 2], scratch);
+        } else {
+            V.add(V, scratch.negated.neg(odd[(-e - 1) / 2]), scratch);
+        }
+    }
+
+    /**
+     * Computes (s mod r)*P with the same sequence of doublings, additions and table reads for every s,
+     * for secret scalars such as the k and s of encryption and decryption. This is s*P whenever the order of P divides r.
+     * @param s a scalar
+     * @return (s mod r)*P
+     */
+    Ed448Projective multiplyConstantTime(BigInteger s) {
+        int[] e = Ed448Scalar.radix16(s);
+        Ed448Projective.Scratch scratch = new Ed448Projective.Scratch();
+        Ed448Projective V = new Ed448Projective();
+        Ed448Projective T = new Ed448Projective();
+        for (int i = e.length - 1; i >= 0; i--) {
+            V.dbl(V, scratch).dbl(V, scratch).dbl(V, scratch).dbl(V, scratch);
+            select(T, multiples, e[i]);
+            V.add(V, T, scratch);
+        }
+        return V;
+    }
+
+    /**
+     * T = e * row[0] for a digit e in [-8, 8], where row[j] = (j + 1) * row[0], touching every entry of the row.
+     */
+    static void select(Ed448Projective T, Ed448Projective[] row, int e) {
+        int sign = e >> 31;
+        int abs = (e ^ sign) - sign;
+        T.set(new Ed448Projective());
+        for (int j = 0; j < row.length; j++) {
+            T.cmov(row[j], abs == j + 1);
+        }
+        T.X.cmov(new GF448().neg(T.X), sign != 0);
+    }
+}
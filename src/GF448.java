@@ -0,0 +1,440 @@
+/**
+ * Mutable elements of the Goldilocks field GF(p), p = 2^448 - 2^224 - 1, held as 16 limbs of 28 bits
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public final class GF448 {
+    static final int LIMBS = 16;
+    static final int BITS = 28;
+    static final long MASK = (1L << BITS) - 1;
+
+    // 2^448 = 2^224 + 1 (mod p), and 2^224 is the start of limb 8
+    private static final int HALF = 8;
+
+    // p in limbs: every limb 2^28 - 1 except limb 8, which is 2^28 - 2
+    private static final long[] P = new long[LIMBS];
+
+    // 2p in (unnormalized) limbs, added before subtracting so that no limb goes negative
+    private static final long[] TWO_P = new long[LIMBS];
+
+    static {
+        for (int i = 0; i < LIMBS; i++) {
+            P[i] = MASK;
+        }
+        P[HALF] = MASK - 1;
+        for (int i = 0; i < LIMBS; i++) {
+            TWO_P[i] = 2 * P[i];
+        }
+    }
+
+    // little-endian limbs; every operation leaves them below 2^28 plus a small carry in limbs 1 and 9
+    final long[] l = new long[LIMBS];
+
+    /**
+     * Creates the element 0.
+     */
+    public GF448() {
+    }
+
+    /**
+     * Creates the element v mod p.
+     * @param v an integer
+     */
+    public GF448(long v) {
+        set(v);
+    }
+
+    /**
+     * Creates a copy of a.
+     * @param a the element to copy
+     */
+    public GF448(GF448 a) {
+        set(a);
+    }
+
+    /**
+     * Creates the element v mod p.
+     * @param v an integer
+     */
+    public GF448(BigInteger v) {
+        byte[] be = v.mod(Ed448GPoint.p).toByteArray();
+        byte[] le = new byte[56];
+        for (int i = 0; i < le.length && i < be.length; i++) {
+            le[i] = be[be.length - 1 - i];
+        }
+        decode(le);
+    }
+
+    public GF448 set(GF448 a) {
+        System.arraycopy(a.l, 0, l, 0, LIMBS);
+        return this;
+    }
+
+    /**
+     * @param v a small integer, which may be negative
+     */
+    public GF448 set(long v) {
+        if (v < 0) {
+            return set(-v).neg(this);
+        }
+        Arrays.fill(l, 0);
+        l[0] = v & MASK;
+        l[1] = (v >>> BITS) & MASK;
+        l[2] = v >>> (2 * BITS);
+        return this;
+    }
+
+    /**
+     * this = a + b
+     */
+    public GF448 add(GF448 a, GF448 b) {
+        for (int i = 0; i < LIMBS; i++) {
+            l[i] = a.l[i] + b.l[i];
+        }
+        return carry();
+    }
+
+    /**
+     * this = a - b
+     */
+    public GF448 sub(GF448 a, GF448 b) {
+        for (int i = 0; i < LIMBS; i++) {
+            l[i] = a.l[i] + TWO_P[i] - b.l[i];
+        }
+        return carry();
+    }
+
+    /**
+     * this = -a
+     */
+    public GF448 neg(GF448 a) {
+        for (int i = 0; i < LIMBS; i++) {
+            l[i] = TWO_P[i] - a.l[i];
+        }
+        return carry();
+    }
+
+    /**
+     * this = a * c for a small non-negative constant c < 2^20
+     */
+    public GF448 mulSmall(GF448 a, int c) {
+        for (int i = 0; i < LIMBS; i++) {
+            l[i] = a.l[i] * c;
+        }
+        return carry();
+    }
+
+    /**
+     * this = a * b. With a = a0 + a1 * 2^224 and 2^448 = 2^224 + 1, the product is
+     * (a0b0 + a1b1) + ((a0 + a1)(b0 + b1) - a0b0) * 2^224, which takes three half-size products.
+     */
+    public GF448 mul(GF448 a, GF448 b) {
+        return mul(a, b, new Scratch());
+    }
+
+    /**
+     * this = a * b, keeping the intermediate products in scratch instead of allocating them.
+     */
+    GF448 mul(GF448 a, GF448 b, Scratch scratch) {
+        long[] x = a.l;
+        long[] y = b.l;
+        long[] xs = scratch.xs;
+        long[] ys = scratch.ys;
+        for (int i = 0; i < HALF; i++) {
+            xs[i] = x[i] + x[i + HALF];
+            ys[i] = y[i] + y[i + HALF];
+        }
+        long[] lo = scratch.clear(scratch.lo);
+        long[] hi = scratch.clear(scratch.hi);
+        long[] mid = scratch.clear(scratch.mid);
+        for (int i = 0; i < HALF; i++) {
+            long xi = x[i];
+            long xh = x[i + HALF];
+            long xm = xs[i];
+            for (int j = 0; j < HALF; j++) {
+                lo[i + j] += xi * y[j];
+                hi[i + j] += xh * y[j + HALF];
+                mid[i + j] += xm * ys[j];
+            }
+        }
+        return reduce(lo, hi, mid);
+    }
+
+    /**
+     * this = a^2, as mul(a, a) but with each cross product computed once.
+     */
+    public GF448 sqr(GF448 a) {
+        return sqr(a, new Scratch());
+    }
+
+    /**
+     * this = a^2, keeping the intermediate products in scratch instead of allocating them.
+     */
+    GF448 sqr(GF448 a, Scratch scratch) {
+        long[] x = a.l;
+        long[] xs = scratch.xs;
+        for (int i = 0; i < HALF; i++) {
+            xs[i] = x[i] + x[i + HALF];
+        }
+        long[] lo = scratch.clear(scratch.lo);
+        long[] hi = scratch.clear(scratch.hi);
+        long[] mid = scratch.clear(scratch.mid);
+        for (int i = 0; i < HALF; i++) {
+            long xi = x[i];
+            long xh = x[i + HALF];
+            long xm = xs[i];
+            lo[2 * i] += xi * xi;
+            hi[2 * i] += xh * xh;
+            mid[2 * i] += xm * xm;
+            xi <<= 1;
+            xh <<= 1;
+            xm <<= 1;
+            for (int j = i + 1; j < HALF; j++) {
+                lo[i + j] += xi * x[j];
+                hi[i + j] += xh * x[j + HALF];
+                mid[i + j] += xm * xs[j];
+            }
+        }
+        return reduce(lo, hi, mid);
+    }
+
+    /**
+     * this = a^(2^n), by n successive squarings.
+     */
+    public GF448 sqr(GF448 a, int n) {
+        return sqr(a, n, new Scratch());
+    }
+
+    private GF448 sqr(GF448 a, int n, Scratch scratch) {
+        sqr(a, scratch);
+        for (int i = 1; i < n; i++) {
+            sqr(this, scratch);
+        }
+        return this;
+    }
+
+    /**
+     * this = 1/a, or 0 if a = 0, as a^(p-2). The addition chain is fixed, so the running time does not depend on a.
+     */
+    public GF448 inv(GF448 a) {
+        // p - 2 = [223 ones] 0 [222 ones] 0 1
+        Scratch scratch = new Scratch();
+        GF448 x222 = new GF448();
+        GF448 t = ones223(a, x222, scratch);
+        t.sqr(t, scratch);
+        t.sqr(t, 222, scratch).mul(t, x222, scratch);
+        t.sqr(t, 2, scratch).mul(t, a, scratch);
+        return set(t);
+    }
+
+    /**
+     * this = a^((p+1)/4), a square root of a whenever a is a square, since p = 3 (mod 4).
+     */
+    public GF448 sqrtCandidate(GF448 a) {
+        // (p + 1) / 4 = 2^222 * (2^224 - 1)
+        Scratch scratch = new Scratch();
+        GF448 t = ones223(a, new GF448(), scratch);
+        t.sqr(t, scratch).mul(t, a, scratch);
+        t.sqr(t, 222, scratch);
+        return set(t);
+    }
+
+    /**
+     * @return a^(2^223 - 1), also leaving a^(2^222 - 1) in x222
+     */
+    private static GF448 ones223(GF448 a, GF448 x222, Scratch scratch) {
+        GF448 x2 = new GF448().sqr(a, scratch);
+        x2.mul(x2, a, scratch);
+        GF448 x3 = new GF448().sqr(x2, scratch);
+        x3.mul(x3, a, scratch);
+        GF448 x6 = new GF448().sqr(x3, 3, scratch);
+        x6.mul(x6, x3, scratch);
+        GF448 x12 = new GF448().sqr(x6, 6, scratch);
+        x12.mul(x12, x6, scratch);
+        GF448 x24 = new GF448().sqr(x12, 12, scratch);
+        x24.mul(x24, x12, scratch);
+        GF448 x30 = new GF448().sqr(x24, 6, scratch);
+        x30.mul(x30, x6, scratch);
+        GF448 x48 = new GF448().sqr(x24, 24, scratch);
+        x48.mul(x48, x24, scratch);
+        GF448 x96 = new GF448().sqr(x48, 48, scratch);
+        x96.mul(x96, x48, scratch);
+        GF448 x192 = new GF448().sqr(x96, 96, scratch);
+        x192.mul(x192, x96, scratch);
+        x222.sqr(x192, 30, scratch).mul(x222, x30, scratch);
+        GF448 x223 = new GF448().sqr(x222, scratch);
+        return x223.mul(x223, a, scratch);
+    }
+
+    /**
+     * @return true if this and a are the same field element
+     */
+    public boolean equals(GF448 a) {
+        byte[] x = encode();
+        byte[] y = a.encode();
+        int diff = 0;
+        for (int i = 0; i < x.length; i++) {
+            diff |= x[i] ^ y[i];
+        }
+        return diff == 0;
+    }
+
+    public boolean isZero() {
+        return equals(new GF448());
+    }
+
+    /**
+     * @return the least significant bit of the canonical representative
+     */
+    public boolean lsb() {
+        return (encode()[0] & 1) != 0;
+    }
+
+    /**
+     * this = a if flag is set, otherwise this is unchanged, without branching on flag.
+     */
+    public GF448 cmov(GF448 a, boolean flag) {
+        long mask = flag ? -1L : 0L;
+        for (int i = 0; i < LIMBS; i++) {
+            l[i] ^= (l[i] ^ a.l[i]) & mask;
+        }
+        return this;
+    }
+
+    /**
+     * @return the canonical value in [0, p)
+     */
+    public BigInteger toBigInteger() {
+        byte[] le = encode();
+        byte[] be = new byte[le.length + 1];
+        for (int i = 0; i < le.length; i++) {
+            be[be.length - 1 - i] = le[i];
+        }
+        return new BigInteger(be);
+    }
+
+    /**
+     * @return the canonical value in [0, p) as 56 little-endian bytes
+     */
+    public byte[] encode() {
+        long[] t = canonical();
+        byte[] out = new byte[56];
+        long acc = 0;
+        int bits = 0;
+        int j = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            acc |= t[i] << bits;
+            bits += BITS;
+            while (bits >= 8) {
+                out[j++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Sets this to the 448-bit little-endian integer in b, reduced mod p.
+     */
+    public GF448 decode(byte[] b) {
+        long acc = 0;
+        int bits = 0;
+        int j = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            while (bits < BITS) {
+                acc |= (b[j++] & 0xFFL) << bits;
+                bits += 8;
+            }
+            l[i] = acc & MASK;
+            acc >>>= BITS;
+            bits -= BITS;
+        }
+        return carry();
+    }
+
+    /**
+     * The unique representative in [0, p), selected without branching on the value.
+     */
+    private long[] canonical() {
+        long[] v = l.clone();
+        carry(v);
+        carry(v);
+        // v < 2p now, so subtracting p at most once gives the canonical value
+        long[] t = new long[LIMBS];
+        long borrow = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            t[i] = v[i] - P[i] + borrow;
+            borrow = t[i] >> BITS;
+            t[i] &= MASK;
+        }
+        long keep = borrow; // -1 if v < p, otherwise 0
+        for (int i = 0; i < LIMBS; i++) {
+            v[i] = (v[i] & keep) | (t[i] & ~keep);
+        }
+        long c = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            v[i] += c;
+            c = v[i] >> BITS;
+            v[i] &= MASK;
+        }
+        return v;
+    }
+
+    /**
+     * Folds the half-size products back into 16 limbs: coefficient k >= 8 of either half stands for
+     * 2^(28(k-8)) * 2^224, and 2^224 * 2^224 = 2^224 + 1.
+     */
+    private GF448 reduce(long[] lo, long[] hi, long[] mid) {
+        for (int i = 0; i < HALF; i++) {
+            long low = lo[i] + hi[i];
+            long high = mid[i] - lo[i];
+            long lowTop = lo[i + HALF] + hi[i + HALF];
+            long highTop = mid[i + HALF] - lo[i + HALF];
+            l[i] = low + highTop;
+            l[i + HALF] = high + lowTop + highTop;
+        }
+        return carry();
+    }
+
+    private GF448 carry() {
+        carry(l);
+        return this;
+    }
+
+    private static void carry(long[] v) {
+        for (int i = 0; i < LIMBS - 1; i++) {
+            v[i + 1] += v[i] >> BITS;
+            v[i] &= MASK;
+        }
+        long top = v[LIMBS - 1] >> BITS;
+        v[LIMBS - 1] &= MASK;
+        v[0] += top;
+        v[HALF] += top;
+        v[1] += v[0] >> BITS;
+        v[0] &= MASK;
+        v[HALF + 1] += v[HALF] >> BITS;
+        v[HALF] &= MASK;
+    }
+
+    /**
+     * Operand sums and half-size products of one multiplication, which a chain of multiplications
+     * on one thread, such as an inversion or a scalar multiplication, can share.
+     */
+    static final class Scratch {
+        final long[] xs = new long[HALF];
+        final long[] ys = new long[HALF];
+        final long[] lo = new long[LIMBS];
+        final long[] hi = new long[LIMBS];
+        final long[] mid = new long[LIMBS];
+
+        // products are accumulated, so each one starts from zero
+        long[] clear(long[] v) {
+            Arrays.fill(v, 0);
+            return v;
+        }
+    }
+}
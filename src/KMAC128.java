@@ -0,0 +1,45 @@
+/**
+ * KMAC128 and KMACXOF128 as per NIST SP 800-185, for integrity checks where 128-bit security suffices
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+public class KMAC128 {
+
+    /**
+     * Compute KMAC128(K, X, L, S), whose output depends on the requested length L.
+     * @param K the key
+     * @param X the input
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return the L-bit MAC
+     */
+    static byte[] KMAC128(byte[] K, byte[] X, int L, byte[] S) {
+        return kmac(K, X, L, S, L);
+    }
+
+    /**
+     * Compute KMACXOF128(K, X, L, S).
+     * @param K the key
+     * @param X the input
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return L bits of output
+     */
+    static byte[] KMACXOF128(byte[] K, byte[] X, int L, byte[] S) {
+        return kmac(K, X, L, S, 0);
+    }
+
+    private static byte[] kmac(byte[] K, byte[] X, int L, byte[] S, long encodedL) {
+        // Validity Conditions: Len(K) < 2^2040 and 0 <= L and Len(S) < 2^2040
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        byte[] val = new byte[L >>> 3];
+        SHAKE shake = new SHAKE();
+        shake.kinit128(K, S);
+        shake.update(X, 0, X.length);
+        shake.xof(encodedL);
+        shake.out(val, L >>> 3);
+        return val;
+    }
+}
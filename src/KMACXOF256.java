@@ -6,19 +6,246 @@
  * Some code borrowed from Professor Paulo Barreto
  */
 
-import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class KMACXOF256 {
+    // 60 KMAC256 blocks, the size of the reusable buffer for streams, channels and direct buffers
+    private static final int BUFFER_SIZE = 136 * 60;
+
+    // the number of keyed sponge states kept by keyedState
+    static final int KEYED_CACHE_SIZE = 64;
+
+    // post-key sponge states by (K, S), least recently used first
+    private static final Map<KeyedStateKey, SHAKE> keyedStates =
+            new LinkedHashMap<KeyedStateKey, SHAKE>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<KeyedStateKey, SHAKE> eldest) {
+                    return size() > KEYED_CACHE_SIZE;
+                }
+            };
+
+    private final SHAKE shake;
+    private SHAKE keyed;
+    private byte[] buffer;
+
+    /**
+     * Creates an incremental KMACXOF256 under key K and customization string S.
+     * Data may then be absorbed in pieces with the update methods, and doFinal
+     * gives the same output as the one-shot KMACXOF256(K, X, L, S) over all of it.
+     * @param K the key
+     * @param S the customization string
+     */
+    public KMACXOF256(byte[] K, byte[] S) {
+        this.shake = new SHAKE();
+        init(K, S);
+    }
+
+    private KMACXOF256(SHAKE keyed) {
+        this.shake = new SHAKE(keyed);
+        this.keyed = keyed;
+    }
+
+    /**
+     * Creates an incremental KMACXOF256 under a key that will not be seen again, such as a
+     * per-file encryption key. Its keyed state is built directly instead of going through
+     * the keyed-state cache, so one-time keys do not evict frequently used ones.
+     * @param K the key
+     * @param S the customization string
+     * @return the incremental KMACXOF256
+     */
+    static KMACXOF256 oneTimeKey(byte[] K, byte[] S) {
+        SHAKE keyed = new SHAKE();
+        keyed.kinit256(K, S);
+        return new KMACXOF256(keyed);
+    }
+
+    /**
+     * Creates an independent copy of another incremental KMACXOF256, including the data
+     * it has absorbed so far.
+     * @param other the computation to copy
+     */
+    public KMACXOF256(KMACXOF256 other) {
+        this.shake = new SHAKE(other.shake);
+        this.keyed = other.keyed;
+    }
+
+    /**
+     * Starts a new computation under key K and customization string S.
+     * @param K the key
+     * @param S the customization string
+     */
+    public void init(byte[] K, byte[] S) {
+        this.keyed = keyedState(K, S);
+        reset();
+    }
+
+    /**
+     * Discards any absorbed data, keeping the current key and customization string.
+     */
+    public void reset() {
+        shake.copyFrom(keyed);
+    }
+
+    public void update(byte[] X) {
+        shake.update(X, 0, X.length);
+    }
+
+    public void update(byte[] X, int off, int len) {
+        shake.update(X, off, len);
+    }
+
+    /**
+     * Absorbs all remaining bytes of buf, advancing its position to its limit.
+     * Direct and memory-mapped buffers are absorbed in place.
+     * @param buf a heap, direct or mapped byte buffer
+     */
+    public void update(ByteBuffer buf) {
+        shake.update(buf);
+    }
+
+    /**
+     * Absorbs everything read from in until the end of the stream. The stream is not closed.
+     * @param in the input stream
+     * @throws IOException if reading from the stream fails
+     */
+    public void update(InputStream in) throws IOException {
+        byte[] b = buffer();
+        int n;
+        while ((n = in.read(b, 0, b.length)) != -1) {
+            shake.update(b, 0, n);
+        }
+    }
+
+    /**
+     * Absorbs everything read from ch until the end of the channel. The channel is not closed.
+     * @param ch the readable channel
+     * @throws IOException if reading from the channel fails
+     */
+    public void update(ReadableByteChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(buffer());
+        while (ch.read(buf) != -1) {
+            buf.flip();
+            update(buf);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Finishes the computation and returns L bits of output. Afterwards the object is
+     * reset and may be reused with the same key and customization string.
+     * @param L the output length in bits (must be a multiple of 8)
+     * @return the KMACXOF256 output over everything absorbed since the last reset
+     */
+    public byte[] doFinal(int L) {
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        byte[] val = new byte[L >>> 3];
+        shake.xof();
+        shake.out(val, L >>> 3);
+        reset();
+        return val;
+    }
+
+    /**
+     * Finishes the computation and squeezes len bytes of output into out at off. Afterwards
+     * the object is reset and may be reused with the same key and customization string.
+     * @param out the output array
+     * @param off the offset of the first output byte
+     * @param len the output length in bytes
+     */
+    public void doFinal(byte[] out, int off, int len) {
+        shake.xof();
+        shake.out(out, off, len);
+        reset();
+    }
+
+    /**
+     * Finishes the computation and xors len bytes of output with in[inOff..] into out[outOff..],
+     * so a keystream can be applied without allocating it. in and out may be the same array.
+     * Afterwards the object is reset and may be reused with the same key and customization string.
+     * @param in the input byte array
+     * @param inOff the offset of the first input byte
+     * @param out the output byte array
+     * @param outOff the offset of the first output byte
+     * @param len the number of bytes to process
+     */
+    public void doFinalXor(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        shake.xof();
+        shake.outXor(in, inOff, out, outOff, len);
+        reset();
+    }
+
+    /**
+     * Finishes absorbing without resetting, so that output can then be taken in pieces with
+     * squeeze or squeezeXor. Call reset before absorbing again.
+     */
+    public void xof() {
+        shake.xof();
+    }
+
+    /**
+     * Squeezes the next len bytes of output into out at off.
+     * @param out the output array
+     * @param off the offset of the first output byte
+     * @param len the number of bytes
+     */
+    public void squeeze(byte[] out, int off, int len) {
+        shake.out(out, off, len);
+    }
+
+    /**
+     * Squeezes the next in.remaining() bytes of output and xors them with in into out, advancing
+     * both positions. Either buffer may be direct or memory-mapped.
+     * @param in the input buffer
+     * @param out the output buffer, with at least in.remaining() bytes remaining
+     */
+    public void squeezeXor(ByteBuffer in, ByteBuffer out) {
+        byte[] b = buffer();
+        while (in.hasRemaining()) {
+            int n = Math.min(b.length, in.remaining());
+            in.get(b, 0, n);
+            shake.outXor(b, 0, b, 0, n);
+            out.put(b, 0, n);
+        }
+    }
+
+    /**
+     * Xors KMACXOF256(K, “”, 8*len, S) with in[inOff..] into out[outOff..]. The result always has
+     * exactly len bytes, and in and out may be the same array.
+     * @param K the key
+     * @param S the customization string
+     * @param in the input byte array
+     * @param inOff the offset of the first input byte
+     * @param out the output byte array
+     * @param outOff the offset of the first output byte
+     * @param len the number of bytes to process
+     */
+    public static void xorKeystream(byte[] K, byte[] S, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        oneTimeKey(K, S).doFinalXor(in, inOff, out, outOff, len);
+    }
+
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return buffer;
+    }
+
     static byte[] KMACXOF256(byte[] K, byte[] X, int L, byte[] S) {
         // Validity Conditions: Len(K) < 2^2040 and 0 <= L and Len(S) < 2^2040
         if ((L & 7) != 0) {
             throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
         }
         byte[] val = new byte[L >>> 3];
-        SHAKE shake = new SHAKE();
-        shake.kinit256(K, S);
+        SHAKE shake = new SHAKE(keyedState(K, S));
         shake.update(X, X.length);
         shake.xof();
         shake.out(val, L >>> 3);
@@ -26,34 +253,121 @@ public class KMACXOF256 {
         return val; // SHAKE256(X, L) or KECCAK512(prefix || X || 00, L)
     }
 
-    private final static byte[] emptyBytes = {};
+    /**
+     * Compute KMACXOF256(K, X[i], L, S) for every message of a batch. Messages are processed
+     * in groups as wide as the Keccak backend, whose permutations run together, and the key
+     * setup is shared by the whole batch, so many short messages hash faster than with one
+     * call per message.
+     * @param K the key
+     * @param X the messages
+     * @param L the output length in bits of each digest (must be a multiple of 8)
+     * @param S the customization string
+     * @return the digests, in the same order as the messages
+     */
+    static byte[][] KMACXOF256(byte[] K, byte[][] X, int L, byte[] S) {
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        SHAKE keyed = keyedState(K, S);
+        byte[][] vals = new byte[X.length][L >>> 3];
+        int width = SHAKE.PERMUTATION.width();
+        SHAKE[] s = new SHAKE[width];
+        byte[][] msg = new byte[width][];
+        int[] off = new int[width];
+        int[] len = new int[width];
+        for (int j = 0; j < width; j++) {
+            s[j] = new SHAKE();
+        }
+        for (int i = 0; i < X.length; i += width) {
+            int n = Math.min(width, X.length - i);
+            for (int j = 0; j < n; j++) {
+                s[j].copyFrom(keyed);
+                msg[j] = X[i + j];
+                len[j] = X[i + j].length;
+            }
+            SHAKE.xof(s, msg, off, len, n);
+            for (int j = 0; j < n; j++) {
+                s[j].out(vals[i + j], L >>> 3);
+            }
+        }
+        return vals;
+    }
+
+    /**
+     * Gives the sponge state right after bytepad(encode_string("KMAC") || encode_string(S))
+     * and bytepad(encode_string(K)) have been absorbed, from a bounded LRU cache when the
+     * same (K, S) pair has been seen recently. The returned state is shared and must be
+     * copied before use.
+     * @param K the key
+     * @param S the customization string
+     * @return the keyed sponge state
+     */
+    static SHAKE keyedState(byte[] K, byte[] S) {
+        KeyedStateKey key = new KeyedStateKey(K, S);
+        synchronized (keyedStates) {
+            SHAKE cached = keyedStates.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        SHAKE shake = new SHAKE();
+        shake.kinit256(K, S);
+        synchronized (keyedStates) {
+            keyedStates.put(new KeyedStateKey(K.clone(), S.clone()), shake);
+        }
+        return shake;
+    }
+
+    private static final class KeyedStateKey {
+        private final byte[] K;
+        private final byte[] S;
+        private final int hash;
+
+        KeyedStateKey(byte[] K, byte[] S) {
+            this.K = K;
+            this.S = S;
+            this.hash = 31 * Arrays.hashCode(K) + Arrays.hashCode(S);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof KeyedStateKey)) {
+                return false;
+            }
+            KeyedStateKey other = (KeyedStateKey) o;
+            return Arrays.equals(K, other.K) && Arrays.equals(S, other.S);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 
     public static SymmetricCryptogram encrypt(byte[] m, String pw){
-        SecureRandom random = new SecureRandom();
         /*z <- random(512) */
         byte[] z = new byte[64];
-        random.nextBytes(z);
+        KeccakDRBG.current().nextBytes(z);
 
         /* (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”) */
 
         //z || pw
         byte[] zpw = Main.concat(z, pw.getBytes());
 
-        byte[] keka = KMACXOF256(zpw, emptyBytes, 1024, "S".getBytes());
+        byte[] keka = oneTimeKey(zpw, "S".getBytes()).doFinal(1024);
         //ke
         byte[] ke = Arrays.copyOfRange(keka, 0, keka.length / 2);
         //ka
         byte[] ka = Arrays.copyOfRange(keka, keka.length / 2, keka.length);
 
         //c <- KMACXOF256(ke, “”, |m|, “SKE”) xor m
-        byte[] c = KMACXOF256(ke, emptyBytes, m.length * 8, "SKE".getBytes());
-        BigInteger cBigInt = new BigInteger(c);
-        BigInteger mBigInt = new BigInteger(m);
-        cBigInt = cBigInt.xor(mBigInt);
-        c = cBigInt.toByteArray();
+        byte[] c = new byte[m.length];
+        xorKeystream(ke, "SKE".getBytes(), m, 0, c, 0, m.length);
 
         //t <- KMACXOF256(ka, m, 512, “SKA”)
-        byte[] t = KMACXOF256(ka, m, 512, "SKA".getBytes());
+        KMACXOF256 auth = oneTimeKey(ka, "SKA".getBytes());
+        auth.update(m);
+        byte[] t = auth.doFinal(512);
 
         return new SymmetricCryptogram(z,c,t);
     }
@@ -62,7 +376,7 @@ public class KMACXOF256 {
     public static byte[] decrypt(byte[] z, byte[] c, byte[] t, byte[] pw){
         //(ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
         byte[] zpw = Main.concat(z, pw);
-        byte[] keka = KMACXOF256(zpw, emptyBytes, 1024, "S".getBytes());
+        byte[] keka = oneTimeKey(zpw, "S".getBytes()).doFinal(1024);
         //ke
         byte[] ke = Arrays.copyOfRange(keka, 0, keka.length / 2);
         //ka
@@ -70,17 +384,16 @@ public class KMACXOF256 {
 
 
         // m <- KMACXOF256(ke, “”, |c|, “SKE”) xor c
-        byte[] m = KMACXOF256(ke, emptyBytes, c.length * 8, "SKE".getBytes());
-        BigInteger cBigInt = new BigInteger(c);
-        BigInteger mBigInt = new BigInteger(m);
-        mBigInt = mBigInt.xor(cBigInt);
-        m = mBigInt.toByteArray();
+        byte[] m = new byte[c.length];
+        xorKeystream(ke, "SKE".getBytes(), c, 0, m, 0, c.length);
 
         // t’ <- KMACXOF256(ka, m, 512, “SKA”)
-        byte[] tPrime = KMACXOF256(ka, m, 512, "SKA".getBytes());
+        KMACXOF256 auth = oneTimeKey(ka, "SKA".getBytes());
+        auth.update(m);
+        byte[] tPrime = auth.doFinal(512);
 
         // accept if, and only if, t’ = t
-        if(Arrays.equals(tPrime, t)) {
+        if(MessageDigest.isEqual(tPrime, t)) {
             return m;
         }else{
             System.out.println("Decryption unsuccessful: t' does not match t");
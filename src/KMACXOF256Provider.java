@@ -0,0 +1,154 @@
+/**
+ * JCA provider exposing KMACXOF256 as a MessageDigest and a Mac, so it can be used with
+ * DigestInputStream, DigestOutputStream and other standard JVM plumbing
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigestSpi;
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.MacSpi;
+
+public class KMACXOF256Provider extends Provider {
+    private static final long serialVersionUID = 1L;
+
+    public static final String NAME = "KMACXOF256";
+
+    // the digest and tag length in bytes, as for the hash and MAC offered by Symmetric
+    private static final int OUTPUT_LENGTH = 64;
+
+    /**
+     * Registers MessageDigest "KMACXOF256", which computes KMACXOF256("", m, 512, "D"),
+     * and Mac "KMACXOF256", which computes KMACXOF256(key, m, 512, "T").
+     * Use it with e.g. MessageDigest.getInstance("KMACXOF256", new KMACXOF256Provider())
+     * or register it with Security.addProvider.
+     */
+    public KMACXOF256Provider() {
+        super(NAME, "1.0", "KMACXOF256 MessageDigest and Mac on the SHAKE sponge");
+        put("MessageDigest.KMACXOF256", Hash.class.getName());
+        put("Mac.KMACXOF256", MAC.class.getName());
+    }
+
+    /**
+     * KMACXOF256("", m, 512, "D"), the plain cryptographic hash of Symmetric.computeTextPlain.
+     */
+    public static final class Hash extends MessageDigestSpi implements Cloneable {
+        private KMACXOF256 kmac;
+        private byte[] one = new byte[1];
+
+        public Hash() {
+            kmac = new KMACXOF256(Symmetric.HASH_KEY, Symmetric.HASH_S);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return OUTPUT_LENGTH;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            one[0] = input;
+            kmac.update(one, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            kmac.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            kmac.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return kmac.doFinal(OUTPUT_LENGTH * 8);
+        }
+
+        @Override
+        protected void engineReset() {
+            kmac.reset();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            Hash copy = (Hash) super.clone();
+            copy.kmac = new KMACXOF256(kmac);
+            copy.one = new byte[1];
+            return copy;
+        }
+    }
+
+    /**
+     * KMACXOF256(key, m, 512, "T"), the MAC of Symmetric.computeMAC, keyed with the encoded
+     * bytes of any SecretKey (e.g. a SecretKeySpec over the passphrase bytes).
+     */
+    public static final class MAC extends MacSpi implements Cloneable {
+        private KMACXOF256 kmac;
+        private byte[] one = new byte[1];
+
+        public MAC() {
+        }
+
+        @Override
+        protected int engineGetMacLength() {
+            return OUTPUT_LENGTH;
+        }
+
+        @Override
+        protected void engineInit(Key key, AlgorithmParameterSpec params)
+                throws InvalidKeyException, InvalidAlgorithmParameterException {
+            if (params != null) {
+                throw new InvalidAlgorithmParameterException("KMACXOF256 takes no parameters");
+            }
+            byte[] K = key == null ? null : key.getEncoded();
+            if (K == null) {
+                throw new InvalidKeyException("Key must have an encoded form");
+            }
+            kmac = new KMACXOF256(K, Symmetric.MAC_S);
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            one[0] = input;
+            kmac.update(one, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            kmac.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            kmac.update(input);
+        }
+
+        @Override
+        protected byte[] engineDoFinal() {
+            return kmac.doFinal(OUTPUT_LENGTH * 8);
+        }
+
+        @Override
+        protected void engineReset() {
+            if (kmac != null) {
+                kmac.reset();
+            }
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            MAC copy = (MAC) super.clone();
+            copy.one = new byte[1];
+            if (kmac != null) {
+                copy.kmac = new KMACXOF256(kmac);
+            }
+            return copy;
+        }
+    }
+}
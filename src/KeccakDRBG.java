@@ -0,0 +1,160 @@
+/**
+ * Deterministic random bit generator on KMACXOF256 in the style of NIST SP 800-90A, with one
+ * instance per thread, so nonces are generated without contending on a shared entropy source
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.security.SecureRandom;
+
+public final class KeccakDRBG {
+    // the size in bytes of the secret working state K and of every entropy input
+    private static final int SEED_LENGTH = 64;
+
+    // the number of generate requests between reseeds (SP 800-90A allows up to 2^48)
+    static final long RESEED_INTERVAL = 1L << 16;
+
+    // the largest single request in bytes (SP 800-90A allows up to 2^16 bytes for Hash_DRBG)
+    static final int MAX_REQUEST = 1 << 16;
+
+    // the only source of entropy, read once per instantiate and reseed rather than per nonce
+    private static final SecureRandom ENTROPY = new SecureRandom();
+
+    private static final ThreadLocal<KeccakDRBG> CURRENT = ThreadLocal.withInitial(KeccakDRBG::new);
+
+    private static final byte[] INSTANTIATE = "DRBG instantiate".getBytes();
+    private static final byte[] RESEED = "DRBG reseed".getBytes();
+    private static final byte[] GENERATE = "DRBG generate".getBytes();
+
+    private byte[] K;
+    private long reseedCounter;
+    private final boolean reseeding;
+
+    private KeccakDRBG() {
+        this(entropy(), personalization(), true);
+    }
+
+    /**
+     * Instantiates a generator from fixed inputs. Without reseeding, its output is fully determined by them.
+     * @param entropy the entropy input
+     * @param personalization the personalization string
+     * @param reseeding whether to reseed from the system entropy source every RESEED_INTERVAL requests
+     */
+    KeccakDRBG(byte[] entropy, byte[] personalization, boolean reseeding) {
+        // K <- KMACXOF256(entropy, personalization, 512, “DRBG instantiate”)
+        this.K = kmac(entropy, personalization, INSTANTIATE);
+        this.reseedCounter = 1;
+        this.reseeding = reseeding;
+    }
+
+    /**
+     * @return the generator of the calling thread
+     */
+    public static KeccakDRBG current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Fills b with random bytes.
+     * @param b the output array
+     */
+    public void nextBytes(byte[] b) {
+        nextBytes(b, 0, b.length);
+    }
+
+    /**
+     * Fills len bytes of b starting at off with random bytes.
+     * @param b the output array
+     * @param off the offset of the first output byte
+     * @param len the number of bytes
+     */
+    public void nextBytes(byte[] b, int off, int len) {
+        while (len > 0) {
+            int n = Math.min(len, MAX_REQUEST);
+            generate(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Generates count independent nonces of size bytes each, squeezing as few requests as possible.
+     * @param count the number of nonces
+     * @param size the size of each nonce in bytes
+     * @return the nonces
+     */
+    public byte[][] nonces(int count, int size) {
+        byte[][] nonces = new byte[count][size];
+        int perRequest = Math.max(1, MAX_REQUEST / Math.max(1, size));
+        byte[] buf = new byte[Math.min(count, perRequest) * size];
+        for (int i = 0; i < count; i += perRequest) {
+            int n = Math.min(perRequest, count - i);
+            generate(buf, 0, n * size);
+            for (int j = 0; j < n; j++) {
+                System.arraycopy(buf, j * size, nonces[i + j], 0, size);
+            }
+        }
+        return nonces;
+    }
+
+    /**
+     * Mixes fresh system entropy into the working state.
+     */
+    public void reseed() {
+        // K <- KMACXOF256(K, entropy, 512, “DRBG reseed”)
+        K = kmac(K, entropy(), RESEED);
+        reseedCounter = 1;
+    }
+
+    /**
+     * (K || out) <- KMACXOF256(K, reseed counter, 512 + 8*len, “DRBG generate”)
+     * Replacing K after every request means that later compromise of the state does not reveal earlier output.
+     */
+    private void generate(byte[] b, int off, int len) {
+        if (reseeding && reseedCounter > RESEED_INTERVAL) {
+            reseed();
+        }
+        KMACXOF256 kmac = KMACXOF256.oneTimeKey(K, GENERATE);
+        byte[] counter = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            counter[i] = (byte) (reseedCounter >>> (56 - 8 * i));
+        }
+        kmac.update(counter);
+        kmac.xof();
+        byte[] next = new byte[SEED_LENGTH];
+        kmac.squeeze(next, 0, SEED_LENGTH);
+        kmac.squeeze(b, off, len);
+        K = next;
+        reseedCounter++;
+    }
+
+    /**
+     * @return KMACXOF256(K, X, 512, S) under a key that is never reused
+     */
+    private static byte[] kmac(byte[] K, byte[] X, byte[] S) {
+        KMACXOF256 kmac = KMACXOF256.oneTimeKey(K, S);
+        kmac.update(X);
+        return kmac.doFinal(SEED_LENGTH * 8);
+    }
+
+    private static byte[] entropy() {
+        byte[] e = new byte[SEED_LENGTH];
+        synchronized (ENTROPY) {
+            ENTROPY.nextBytes(e);
+        }
+        return e;
+    }
+
+    /**
+     * Thread identity and time, so that instances seeded in the same instant still differ.
+     */
+    private static byte[] personalization() {
+        long id = Thread.currentThread().getId();
+        long time = System.nanoTime();
+        byte[] p = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            p[i] = (byte) (id >>> (56 - 8 * i));
+            p[8 + i] = (byte) (time >>> (56 - 8 * i));
+        }
+        return p;
+    }
+}
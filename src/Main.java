@@ -10,6 +10,10 @@
 public class Main {
 
     public static void main(String[] args)  {
+        // with arguments, run headless bulk encryption or decryption instead of the interactive menu
+        if (args.length > 0) {
+            System.exit(BulkCrypt.cli(args));
+        }
         boolean running = true;
         while (running) {
             Console.printHeader();
@@ -0,0 +1,243 @@
+/**
+ * File input and output through memory-mapped regions and file channels, so that files are fed to the
+ * sponge and written back without first being copied onto the heap
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class MappedIO {
+    // the largest region mapped at a time; longer files are processed one window after another
+    static final int MAP_WINDOW = 1 << 28;
+
+    // appended to an output file name while the output is being written
+    static final String PARTIAL = ".part";
+
+    /**
+     * Absorbs the whole file into kmac, mapping it one window at a time.
+     * @param kmac the computation to feed
+     * @param path the file
+     * @throws IOException if the file cannot be read
+     */
+    public static void absorb(KMACXOF256 kmac, Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                kmac.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+            }
+        }
+    }
+
+    /**
+     * Maps a whole file read-only. The mapping stays valid after this returns.
+     * @param path the file
+     * @return the mapped contents, positioned at 0
+     * @throws IOException if the file cannot be read or is too large to map as one buffer
+     */
+    public static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map as a single buffer");
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /**
+     * Reads a small file, such as a key or a signature, into a byte array.
+     * @param path the file
+     * @return the file contents
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] read(Path path) throws IOException {
+        // read through the channel rather than a mapping, which would keep the file mapped until collected
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to read into a single array");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) {
+                    throw new IOException(path + " shrank while it was being read");
+                }
+            }
+            return buf.array();
+        }
+    }
+
+    /**
+     * Maps an input file read-only, unless it is the same file as output, in which case it is read
+     * onto the heap: a live mapping of the output would stop the finished output being moved over it on Windows.
+     * @param path the input file
+     * @param output the file the input will be transformed into
+     * @return the contents, positioned at 0
+     * @throws IOException if the file cannot be read
+     */
+    public static ByteBuffer mapInput(Path path, Path output) throws IOException {
+        return isSameFile(path, output) ? ByteBuffer.wrap(read(path)) : map(path);
+    }
+
+    /**
+     * Creates or truncates a file of exactly size bytes and maps it read-write as an output sink.
+     * @param path the file
+     * @param size the file size in bytes
+     * @return the mapping, positioned at 0
+     * @throws IOException if the file cannot be created or is too large to map as one buffer
+     */
+    public static MappedByteBuffer create(Path path, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + " is too large to map as a single buffer");
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Creates or truncates a file and writes b to it through a file channel.
+     * @param path the file
+     * @param b the new contents
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, byte[] b) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(b);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    /**
+     * Gives the temporary sibling that an output is written to before replace moves it into place,
+     * so that the output file can also be the input still being read.
+     * @param path the output file
+     * @return the temporary file next to it
+     */
+    public static Path partial(Path path) {
+        return path.toAbsolutePath().resolveSibling(path.getFileName() + PARTIAL);
+    }
+
+    /**
+     * Flushes a complete temporary output to the device and atomically moves it over its target.
+     * @param partial the temporary file, as given by partial(path)
+     * @param path the output file
+     * @throws IOException if the file cannot be moved
+     */
+    public static void replace(Path partial, Path path) throws IOException {
+        // flush the data first, so that a crash cannot leave the rename on disk without the contents
+        try (FileChannel ch = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a stream over a file that copies straight out of mapped windows, for code that consumes
+     * streams. Closing the stream closes the file.
+     * @param path the file
+     * @return the stream
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream inputStream(Path path) throws IOException {
+        return new MappedInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens a stream over an input file as inputStream(path) does, but through plain channel reads
+     * when it is the same file as output, so that no mapping of it is left to block replace on Windows.
+     * @param path the input file
+     * @param output the file the input will be transformed into
+     * @return the stream
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream inputStream(Path path, Path output) throws IOException {
+        if (isSameFile(path, output)) {
+            return Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+        }
+        return inputStream(path);
+    }
+
+    private static boolean isSameFile(Path path, Path output) throws IOException {
+        return Files.exists(output) && Files.isSameFile(path, output);
+    }
+
+    /**
+     * Creates or truncates a file and opens a stream writing to it through its file channel.
+     * @param path the file
+     * @return the stream
+     * @throws IOException if the file cannot be created
+     */
+    public static OutputStream outputStream(Path path) throws IOException {
+        return Channels.newOutputStream(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    private static final class MappedInputStream extends InputStream {
+        private final FileChannel ch;
+        private final long size;
+        private long next;
+        private ByteBuffer window = ByteBuffer.allocate(0);
+
+        MappedInputStream(FileChannel ch) throws IOException {
+            this.ch = ch;
+            this.size = ch.size();
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        private boolean fill() throws IOException {
+            if (window.hasRemaining()) {
+                return true;
+            }
+            if (next >= size) {
+                return false;
+            }
+            long len = Math.min(MAP_WINDOW, size - next);
+            window = ch.map(FileChannel.MapMode.READ_ONLY, next, len);
+            next += len;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? window.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return window.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * NIST SP 800-185 ParallelHash256 on the SHAKE sponge, hashing the leaf chunks on a fork-join pool
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelHash256 {
+    // leaf chunk size B in bytes used when hashing files
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    // the number of leaf digests computed in parallel before they are absorbed into the final sponge
+    private static final int LEAVES_PER_BATCH = 1024;
+
+    // leaves hashed together by the Keccak backend, as many as it permutes at once
+    private static final int LEAVES_PER_GROUP = SHAKE.PERMUTATION.width();
+
+    // leaves hashed sequentially by a single fork-join task
+    private static final int LEAVES_PER_TASK = Math.max(4, LEAVES_PER_GROUP);
+
+    // size in bytes of each leaf digest cSHAKE256(chunk, 512, "", "")
+    private static final int LEAF_DIGEST = 64;
+
+    private static final ThreadLocal<byte[]> leafBuffer = new ThreadLocal<>();
+
+    /**
+     * Compute ParallelHash256(X, B, L, S) with the leaf chunks of X hashed on the common fork-join pool.
+     * @param X the input byte array
+     * @param B the leaf chunk size in bytes
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return the ParallelHash256 digest
+     */
+    public static byte[] ParallelHash256(byte[] X, int B, int L, byte[] S) {
+        try {
+            return hash(new Leaves(X, null, X.length, B), L, S);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen, nothing is read from a channel
+        }
+    }
+
+    /**
+     * Compute ParallelHash256 over the whole contents of a file. Each leaf task reads its own
+     * chunks with positioned reads, so the file is never held in memory and throughput scales
+     * with the number of cores.
+     * @param ch a channel open for reading on the file
+     * @param B the leaf chunk size in bytes
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return the ParallelHash256 digest of the file
+     * @throws IOException if reading the file fails
+     */
+    public static byte[] ParallelHash256(FileChannel ch, int B, int L, byte[] S) throws IOException {
+        return hash(new Leaves(null, ch, ch.size(), B), L, S);
+    }
+
+    private static byte[] hash(Leaves leaves, int L, byte[] S) throws IOException {
+        // Validity Conditions: 0 < B < 2^2040 and 0 <= L < 2^2040 and len(S) < 2^2040
+        if (leaves.B <= 0) {
+            throw new IllegalArgumentException("Block size B must be positive");
+        }
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        // 1. n = ceiling(len(X) / 8 / B)
+        long n = (leaves.length + leaves.B - 1) / leaves.B;
+
+        SHAKE shake = new SHAKE();
+        shake.cinit256("ParallelHash".getBytes(), S);
+        // 2. z = left_encode(B)
+        shake.absorb_left_encode(leaves.B);
+
+        // 3. for i = 0 to n - 1: z = z || cSHAKE256(substring(X, i*B*8, (i+1)*B*8), 512, "", "")
+        byte[] z = new byte[(int) Math.min(n, LEAVES_PER_BATCH) * LEAF_DIGEST];
+        for (long lo = 0; lo < n; lo += LEAVES_PER_BATCH) {
+            long hi = Math.min(n, lo + LEAVES_PER_BATCH);
+            leaves.digest(lo, hi, z);
+            shake.update(z, 0, (int) (hi - lo) * LEAF_DIGEST);
+        }
+
+        // 4. z = z || right_encode(n) || right_encode(L)
+        shake.absorb_right_encode(n);
+        shake.absorb_right_encode(L);
+
+        // 5. newX = z; 6. return cSHAKE256(newX, L, "ParallelHash", S)
+        byte[] val = new byte[L >>> 3];
+        shake.xof();
+        shake.out(val, L >>> 3);
+        return val;
+    }
+
+    /**
+     * The leaf chunks of the input, taken either from a byte array or from a file channel.
+     */
+    private static final class Leaves {
+        private final byte[] X;
+        private final FileChannel ch;
+        private final long length;
+        private final int B;
+
+        Leaves(byte[] X, FileChannel ch, long length, int B) {
+            this.X = X;
+            this.ch = ch;
+            this.length = length;
+            this.B = B;
+        }
+
+        /**
+         * Hashes leaves lo (inclusive) to hi (exclusive) in parallel into z.
+         */
+        void digest(long lo, long hi, byte[] z) throws IOException {
+            LeafTask task = new LeafTask(this, lo, lo, hi, z);
+            ForkJoinPool.commonPool().invoke(task);
+            if (task.failure != null) {
+                throw task.failure;
+            }
+        }
+
+        /**
+         * Hashes the n leaves starting at leaf i into z at position zoff, running their
+         * permutations together. n must not exceed LEAVES_PER_GROUP.
+         */
+        void digestLeaves(long i, int n, byte[] z, int zoff) throws IOException {
+            SHAKE[] shakes = new SHAKE[n];
+            byte[][] msg = new byte[n][];
+            int[] off = new int[n];
+            int[] len = new int[n];
+            byte[] buf = null;
+            if (X == null) {
+                buf = leafBuffer.get();
+                if (buf == null || buf.length < LEAVES_PER_GROUP * B) {
+                    buf = new byte[LEAVES_PER_GROUP * B];
+                    leafBuffer.set(buf);
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                long start = (i + j) * B;
+                len[j] = (int) Math.min(B, length - start);
+                if (X != null) {
+                    msg[j] = X;
+                    off[j] = (int) start;
+                } else {
+                    msg[j] = buf;
+                    off[j] = j * B;
+                    ByteBuffer bb = ByteBuffer.wrap(buf, off[j], len[j]);
+                    while (bb.hasRemaining()) {
+                        if (ch.read(bb, start + bb.position() - off[j]) < 0) {
+                            throw new IOException("File shrank while it was being hashed");
+                        }
+                    }
+                }
+                shakes[j] = new SHAKE();
+                shakes[j].init256();
+            }
+            SHAKE.xof(shakes, msg, off, len, n);
+            for (int j = 0; j < n; j++) {
+                shakes[j].out(z, zoff + j * LEAF_DIGEST, LEAF_DIGEST);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial") // fork-join tasks are never serialized
+    private static final class LeafTask extends RecursiveAction {
+        private final Leaves leaves;
+        private final long base;
+        private final long lo;
+        private final long hi;
+        private final byte[] z;
+        private volatile IOException failure;
+
+        LeafTask(Leaves leaves, long base, long lo, long hi, byte[] z) {
+            this.leaves = leaves;
+            this.base = base;
+            this.lo = lo;
+            this.hi = hi;
+            this.z = z;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= LEAVES_PER_TASK) {
+                try {
+                    for (long i = lo; i < hi; i += LEAVES_PER_GROUP) {
+                        int n = (int) Math.min(LEAVES_PER_GROUP, hi - i);
+                        leaves.digestLeaves(i, n, z, (int) (i - base) * LEAF_DIGEST);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                return;
+            }
+            long mid = (lo + hi) >>> 1;
+            LeafTask left = new LeafTask(leaves, base, lo, mid, z);
+            LeafTask right = new LeafTask(leaves, base, mid, hi, z);
+            invokeAll(left, right);
+            failure = left.failure != null ? left.failure : right.failure;
+        }
+    }
+}
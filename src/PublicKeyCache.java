@@ -0,0 +1,78 @@
+/**
+ * Bounded LRU cache of decoded public keys by their encoding, so that keys seen again skip the
+ * square root of decoding and reuse the window of multiples built for the first multiplication
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class PublicKeyCache {
+    // the number of distinct keys kept
+    static final int CAPACITY = 4096;
+
+    // decoded keys by their encoded bytes, least recently used first
+    private static final Map<ByteBuffer, DecodedKey> entries =
+            new LinkedHashMap<ByteBuffer, DecodedKey>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, DecodedKey> eldest) {
+                    return size() > CAPACITY;
+                }
+            };
+
+    private PublicKeyCache() {
+    }
+
+    /**
+     * A public key that has been decoded and checked to be on the curve.
+     */
+    public static final class DecodedKey {
+        public final Ed448GPoint point;
+        private volatile Ed448Window window;
+
+        DecodedKey(Ed448GPoint point) {
+            this.point = point;
+        }
+
+        /**
+         * @return the multiples of the key, built by the first caller that needs them and shared after that
+         */
+        Ed448Window window() {
+            Ed448Window w = window;
+            if (w == null) {
+                // two threads may both build it, which is harmless since the windows are equal and never modified
+                w = new Ed448Window(new Ed448Projective(point));
+                window = w;
+            }
+            return w;
+        }
+    }
+
+    /**
+     * Decodes a public key as written by Ed448GPoint.getBytes, or returns the cached entry for the same bytes.
+     * @param encoded the encoded key
+     * @return the decoded key, or null if the bytes do not encode a point on the curve
+     */
+    public static DecodedKey get(byte[] encoded) {
+        ByteBuffer key = ByteBuffer.wrap(encoded);
+        synchronized (entries) {
+            DecodedKey cached = entries.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (encoded.length < 2) {
+            return null;
+        }
+        Ed448GPoint point = Ed448GPoint.pointFromBytes(encoded);
+        if (!point.isOnCurve()) {
+            return null;
+        }
+        DecodedKey entry = new DecodedKey(point);
+        synchronized (entries) {
+            DecodedKey raced = entries.putIfAbsent(ByteBuffer.wrap(encoded.clone()), entry);
+            return raced != null ? raced : entry;
+        }
+    }
+}
@@ -6,21 +6,29 @@
  * Some code borrowed from Professor Paulo Barreto
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 
 public class SHAKE {
 
     private boolean ext;
     private boolean kmac;
-    private byte[] b;
+    private long[] st;  // the state as 25 little-endian 64-bit lanes
     private int pt;
     private int rsiz;
 
     static final public byte[] right_encode_0 = {(byte)0x00, (byte)0x01};
+    static final private byte[] KMAC_N = {(byte)'K', (byte)'M', (byte)'A', (byte)'C'};
     static final public int KECCAKF_ROUNDS = 24;
 
-    private static final long[] keccakf_rndc = {
+    // reads and writes a little-endian 64-bit lane at any offset of a byte[]
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static final long[] keccakf_rndc = {
             0x0000000000000001L, 0x0000000000008082L, 0x800000000000808AL,
             0x8000000080008000L, 0x000000000000808BL, 0x0000000080000001L,
             0x8000000080008081L, 0x8000000000008009L, 0x000000000000008AL,
@@ -31,135 +39,432 @@ public class SHAKE {
             0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
     };
 
-    static final public int[] keccakf_rotc = {
-            1,  3,  6,  10, 15, 21, 28, 36, 45, 55, 2,  14,
-            27, 41, 56, 8,  25, 43, 62, 18, 39, 61, 20, 44
-    };
+    /**
+     * A Keccak-f[1600] implementation working in place on 25 little-endian 64-bit lanes.
+     */
+    interface Permutation {
+        void keccakf(long[] a);
+
+        /**
+         * The number of independent states keccakf(long[][], int) permutes at once.
+         */
+        default int width() {
+            return 1;
+        }
 
-    static final public int[] keccakf_piln = {
-            10, 7,  11, 17, 18, 3, 5,  16, 8,  21, 24, 4,
-            15, 23, 19, 13, 12, 2, 20, 14, 22, 9,  6,  1
-    };
+        /**
+         * Permutes states[0] to states[n - 1] in place, for n at most width().
+         */
+        default void keccakf(long[][] states, int n) {
+            for (int i = 0; i < n; i++) {
+                keccakf(states[i]);
+            }
+        }
+    }
+
+    /**
+     * The unrolled scalar rounds, taking states two at a time through the interleaved permutation.
+     */
+    private static final class Scalar implements Permutation {
+        @Override
+        public void keccakf(long[] a) {
+            sha3_keccakf_scalar(a);
+        }
+
+        @Override
+        public int width() {
+            return 2;
+        }
+
+        @Override
+        public void keccakf(long[][] states, int n) {
+            int i = 0;
+            for (; i + 1 < n; i += 2) {
+                sha3_keccakf2(states[i], states[i + 1]);
+            }
+            if (i < n) {
+                sha3_keccakf_scalar(states[i]);
+            }
+        }
+    }
+
+    static final Permutation SCALAR = new Scalar();
+
+    // the optional Vector API backend, or null when it is not on the class path or
+    // the jdk.incubator.vector module is not available at run time
+    static final Permutation VECTOR = loadPermutation("KeccakVector");
+
+    // the backend used by every sponge, chosen once at startup from the preferred vector species:
+    // -Dkeccak.backend=scalar or =vector forces one, otherwise see selectPermutation
+    static final Permutation PERMUTATION = selectPermutation(System.getProperty("keccak.backend", ""));
 
     public SHAKE() {
         ext = false;
         kmac = false;
-        b = new byte[200];
+        st = new long[25];
         pt = 0;
         rsiz = 0;
     }
 
-    public void kinit256(byte[] K, byte[] S) {
-        this.ext = true;
-        this.kmac = true;
-        this.rsiz = 136;
+    /**
+     * Creates a snapshot of another sponge, including its absorbed data and position.
+     * @param other the sponge to copy
+     */
+    public SHAKE(SHAKE other) {
+        st = new long[25];
+        copyFrom(other);
+    }
+
+    /**
+     * Overwrites this sponge with the state of another one without allocating.
+     * @param other the sponge to copy
+     */
+    public void copyFrom(SHAKE other) {
+        this.ext = other.ext;
+        this.kmac = other.kmac;
+        System.arraycopy(other.st, 0, this.st, 0, 25);
+        this.pt = other.pt;
+        this.rsiz = other.rsiz;
+    }
+
+    /**
+     * Initialize the sponge for plain SHAKE128 (rate 168 bytes).
+     */
+    public void init128() {
+        init(168);
+    }
+
+    /**
+     * Initialize the sponge for plain SHAKE256 (rate 136 bytes).
+     */
+    public void init256() {
+        init(136);
+    }
+
+    private void init(int rsiz) {
+        this.ext = false;
+        this.kmac = false;
+        this.rsiz = rsiz;
         this.pt = 0;
+        Arrays.fill(this.st, 0L);
+    }
 
-        byte[] NS = Main.concat(encode_string("KMAC".getBytes()), encode_string(S));
-        NS = bytepad(NS, 136);
-        update(NS, NS.length);
+    /**
+     * Initialize the sponge for cSHAKE128 with function name N and customization string S.
+     * @param N the function name
+     * @param S the customization string
+     */
+    public void cinit128(byte[] N, byte[] S) {
+        cinit(168, N, S);
+    }
 
-        byte[] new_k = bytepad(encode_string(K), 136);
-        update(new_k, new_k.length);
+    /**
+     * Initialize the sponge for cSHAKE256 with function name N and customization string S.
+     * @param N the function name
+     * @param S the customization string
+     */
+    public void cinit256(byte[] N, byte[] S) {
+        cinit(136, N, S);
+    }
 
+    /**
+     * As per the NIST specification cSHAKE is plain SHAKE when both N and S are empty.
+     */
+    private void cinit(int rsiz, byte[] N, byte[] S) {
+        init(rsiz);
+        if (N.length == 0 && S.length == 0) {
+            return;
+        }
+        this.ext = true;
+
+        // bytepad(encode_string(N) || encode_string(S), rsiz)
+        absorb_left_encode(rsiz);
+        absorb_encode_string(N);
+        absorb_encode_string(S);
+        absorb_zero_pad();
+    }
+
+    public void kinit128(byte[] K, byte[] S) {
+        kinit(168, K, S);
+    }
+
+    public void kinit256(byte[] K, byte[] S) {
+        kinit(136, K, S);
+    }
+
+    private void kinit(int rsiz, byte[] K, byte[] S) {
+        cinit(rsiz, KMAC_N, S);
+        this.kmac = true;
+
+        // bytepad(encode_string(K), rsiz)
+        absorb_left_encode(rsiz);
+        absorb_encode_string(K);
+        absorb_zero_pad();
     }
 
     public void update(byte[] X, int len) {
+        update(X, 0, len);
+    }
+
+    /**
+     * Absorb len bytes of X starting at off.
+     * Bytes are only absorbed one at a time up to the next lane boundary and for the
+     * final partial lane; everything in between is XORed into the state 64 bits at a time.
+     * @param X the input byte array
+     * @param off the offset of the first byte to absorb
+     * @param len the number of bytes to absorb
+     */
+    public void update(byte[] X, int off, int len) {
         int j = this.pt;
-        for (int i = 0; i < len; i++) {
-            this.b[j++] ^= X[i];
+        // head: single bytes until the state position is lane-aligned
+        while (len > 0 && (j & 7) != 0) {
+            this.st[j >>> 3] ^= (X[off++] & 0xFFL) << ((j & 7) << 3);
+            len--;
+            if (++j >= this.rsiz) {
+                sha3_keccakf(this.st);
+                j = 0;
+            }
+        }
+        // full rate blocks, rsiz / 8 lanes at a time
+        if (j == 0) {
+            int lanes = this.rsiz >>> 3;
+            while (len >= this.rsiz) {
+                for (int i = 0; i < lanes; i++) {
+                    this.st[i] ^= (long) LANE.get(X, off);
+                    off += 8;
+                }
+                len -= this.rsiz;
+                sha3_keccakf(this.st);
+            }
+        }
+        // remaining whole lanes
+        while (len >= 8) {
+            this.st[j >>> 3] ^= (long) LANE.get(X, off);
+            off += 8;
+            len -= 8;
+            j += 8;
             if (j >= this.rsiz) {
-                sha3_keccakf(this.b);
+                sha3_keccakf(this.st);
                 j = 0;
             }
         }
+        // tail: the final partial lane
+        while (len > 0) {
+            this.st[j >>> 3] ^= (X[off++] & 0xFFL) << ((j & 7) << 3);
+            len--;
+            j++;
+        }
         this.pt = j;
     }
 
+    /**
+     * Absorb all remaining bytes of buf, advancing its position to its limit.
+     * Direct and memory-mapped buffers are read 64 bits at a time in place, without
+     * first being copied onto the heap.
+     * @param buf a heap, direct or mapped byte buffer
+     */
+    public void update(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            return;
+        }
+        ByteBuffer X = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int off = buf.position();
+        int len = buf.remaining();
+        int j = this.pt;
+        // head: single bytes until the state position is lane-aligned
+        while (len > 0 && (j & 7) != 0) {
+            this.st[j >>> 3] ^= (X.get(off++) & 0xFFL) << ((j & 7) << 3);
+            len--;
+            if (++j >= this.rsiz) {
+                sha3_keccakf(this.st);
+                j = 0;
+            }
+        }
+        // whole lanes
+        while (len >= 8) {
+            this.st[j >>> 3] ^= X.getLong(off);
+            off += 8;
+            len -= 8;
+            j += 8;
+            if (j >= this.rsiz) {
+                sha3_keccakf(this.st);
+                j = 0;
+            }
+        }
+        // tail: the final partial lane
+        while (len > 0) {
+            this.st[j >>> 3] ^= (X.get(off++) & 0xFFL) << ((j & 7) << 3);
+            len--;
+            j++;
+        }
+        this.pt = j;
+        buf.position(buf.limit());
+    }
+
     public void out(byte[] val, int L) {
+        out(val, 0, L);
+    }
+
+    /**
+     * Squeeze L bytes into val starting at off, copying whole lanes wherever possible.
+     * @param val the output byte array
+     * @param off the offset of the first output byte
+     * @param L the number of bytes to squeeze
+     */
+    public void out(byte[] val, int off, int L) {
         int j = this.pt;
-        for (int i = 0; i < L; i++) {
+        while (L > 0) {
             if (j >= this.rsiz) {
-                sha3_keccakf(this.b);
+                sha3_keccakf(this.st);
                 j = 0;
             }
-            val[i] = this.b[j++];
+            if ((j & 7) == 0 && L >= 8) {
+                LANE.set(val, off, this.st[j >>> 3]);
+                off += 8;
+                L -= 8;
+                j += 8;
+            } else {
+                val[off++] = (byte) (this.st[j >>> 3] >>> ((j & 7) << 3));
+                L--;
+                j++;
+            }
         }
         this.pt = j;
     }
 
     /**
-     * Apply the NIST bytepad primitive to a byte array X with encoding factor w.
-     * @param X the byte array to bytepad
-     * @param w the encoding factor (the output length must be a multiple of w)
-     * @return the byte-padded byte array X with encoding factor w.
+     * Squeeze len bytes of keystream and xor them with in[inOff..], writing the result to out[outOff..].
+     * The output has exactly len bytes, and in and out may be the same array for in-place use.
+     * @param in the input byte array
+     * @param inOff the offset of the first input byte
+     * @param out the output byte array
+     * @param outOff the offset of the first output byte
+     * @param len the number of bytes to process
      */
-    private static byte[] bytepad(byte[] X, int w) {
-        // Validity Conditions: w > 0
-        assert w > 0;
-        // 1. z = left_encode(w) || X
-        byte[] wenc = left_encode(w);
-        byte[] z = new byte[w*((wenc.length + X.length + w - 1)/w)];
-        // NB: z.length is the smallest multiple of w that fits wenc.length + X.length
-        System.arraycopy(wenc, 0, z, 0, wenc.length);
-        System.arraycopy(X, 0, z, wenc.length, X.length);
-        // 2. (nothing to do: len(z) mod 8 = 0 in this byte-oriented implementation)
-        // 3. while (len(z)/8 mod w != 0: z = z || 00000000
-        for (int i = wenc.length + X.length; i < z.length; i++) {
-            z[i] = (byte)0;
+    public void outXor(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        int j = this.pt;
+        while (len > 0) {
+            if (j >= this.rsiz) {
+                sha3_keccakf(this.st);
+                j = 0;
+            }
+            if ((j & 7) == 0 && len >= 8) {
+                LANE.set(out, outOff, (long) LANE.get(in, inOff) ^ this.st[j >>> 3]);
+                inOff += 8;
+                outOff += 8;
+                len -= 8;
+                j += 8;
+            } else {
+                out[outOff++] = (byte) (in[inOff++] ^ (this.st[j >>> 3] >>> ((j & 7) << 3)));
+                len--;
+                j++;
+            }
         }
-        // 4. return z
-        return z;
+        this.pt = j;
     }
 
     public static byte[] right_encode(long x) {
         // Validity Conditions: 0 ≤ x < 2^2040
         assert x >= 0;
-        assert x <= Math.pow(2, 2040);
         // 1. Let n be the smallest positive integer for which 2^8n > x.
-        int n = 1;
-        while (Math.pow(2, 8 * n) <= x) {
-            n++;
-        }
+        int n = encode_length(x);
         // 2. Let x1, x2, ..., xn be the base-256 encoding of x satisfying:
         //      x = ∑ 2^(8(n-i)) * xi, for i = 1 to n.
-        ByteBuffer b = ByteBuffer.allocate(n + 1);
+        byte[] b = new byte[n + 1];
         // 3. Let Oi = enc8(xi), for i = 1 to n.
-        for (int i = 0; i < n; i++) {
-            b.put((byte) (x >> (i * 8)));
+        for (int i = 1; i <= n; i++) {
+            b[i - 1] = (byte) (x >>> ((n-i) * 8));
         }
         // 4. Let On+1 = enc8(n).
-        b.put((byte) n);
+        b[n] = (byte) n;
         // 5. Return O = O1 || O2 || ... || On || On+1.
-        return b.array();
+        return b;
     }
 
     public static byte[] left_encode(long x) {
         // Validity Conditions: 0 ≤ x < 2^2040
         assert x >= 0;
-        assert x <= Math.pow(2, 2040);
         // 1. Let n be the smallest positive integer for which 2^8n > x.
-        int n = 1;
-        while (Math.pow(2, 8 * n) <= x) {
-            n++;
-        }
+        int n = encode_length(x);
         // 2. Let x1, x2, ..., xn be the base-256 encoding of x satisfying:
         //      x = ∑ 2^(8(n-i)) * xi, for i = 1 to n.
-        ByteBuffer b = ByteBuffer.allocate(n + 1);
+        byte[] b = new byte[n + 1];
         // 3. Let O0 = enc8(n).
-        b.put((byte) n);
+        b[0] = (byte) n;
         // 4. Let Oi = enc8(xi), for i = 1 to n.
         for (int i = 1; i <= n; i++) {
-            b.put((byte) (x >> ((n-i) * 8)));
+            b[i] = (byte) (x >>> ((n-i) * 8));
         }
         // 5. Return O = O0 || O1 || ... || On−1 || On.
-        return b.array();
+        return b;
+    }
+
+    /**
+     * The smallest positive n for which 2^8n > x, i.e. the number of bytes in the base-256 encoding of x.
+     * @param x a non-negative integer
+     * @return the length n used by left_encode and right_encode
+     */
+    private static int encode_length(long x) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) >>> 3);
+    }
+
+    /**
+     * Absorb left_encode(x) without building the encoding as an array.
+     * @param x a non-negative integer
+     */
+    public void absorb_left_encode(long x) {
+        int n = encode_length(x);
+        absorb_byte(n);
+        for (int i = 1; i <= n; i++) {
+            absorb_byte((int) (x >>> ((n-i) * 8)));
+        }
+    }
+
+    /**
+     * Absorb right_encode(x) without building the encoding as an array.
+     * @param x a non-negative integer
+     */
+    public void absorb_right_encode(long x) {
+        int n = encode_length(x);
+        for (int i = 1; i <= n; i++) {
+            absorb_byte((int) (x >>> ((n-i) * 8)));
+        }
+        absorb_byte(n);
+    }
+
+    /**
+     * Absorb encode_string(S) = left_encode(len(S)) || S without concatenating the two.
+     * @param S the string to encode
+     */
+    public void absorb_encode_string(byte[] S) {
+        absorb_left_encode(S.length * 8L);
+        update(S, 0, S.length);
+    }
+
+    /**
+     * Finish bytepad(X, rsiz) for an X whose left_encode(rsiz) was absorbed at the start of a block:
+     * the zero padding leaves the state unchanged, so the block is simply permuted if it is not yet full.
+     */
+    public void absorb_zero_pad() {
+        if (this.pt != 0) {
+            sha3_keccakf(this.st);
+            this.pt = 0;
+        }
+    }
+
+    private void absorb_byte(int b) {
+        this.st[this.pt >>> 3] ^= (b & 0xFFL) << ((this.pt & 7) << 3);
+        if (++this.pt >= this.rsiz) {
+            sha3_keccakf(this.st);
+            this.pt = 0;
+        }
     }
 
     public static byte[] encode_string(byte[] S) {
         // Validity Conditions: 0 ≤ len(S) < 2^2040
         int len = S.length;
-        assert len <  Math.pow(2, 2040);
 
         byte[] lenS = left_encode(len * 8L);
         return Main.concat(lenS, S);
@@ -169,116 +474,388 @@ public class SHAKE {
      * Switch from absorbing to extensible squeezing.
      */
     public void xof() {
+        xof(0);
+    }
+
+    /**
+     * Switch from absorbing to squeezing L bits for a fixed-length KMAC, which ends the
+     * input with right_encode(L) instead of the right_encode(0) of the XOF variants.
+     * For anything but KMAC the output length does not affect the padding.
+     * @param L the output length in bits
+     */
+    public void xof(long L) {
+        pad(L);
+        sha3_keccakf(this.st);
+    }
+
+    /**
+     * Apply the final padding and rewind to the start of the block, leaving the
+     * permutation that starts squeezing to the caller.
+     */
+    private void pad(long L) {
         if (kmac) {
-            // mandatory padding as per the NIST specification
-            update(right_encode_0, right_encode_0.length);
+            // mandatory padding as per the NIST specification: right_encode(L)
+            absorb_right_encode(L);
         }
         // the (binary cSHAKE suffix is 00, while the (binary) SHAKE suffix is 1111
-        this.b[this.pt] ^= (byte)(this.ext ? 0x04 : 0x1F);
+        this.st[this.pt >>> 3] ^= (this.ext ? 0x04L : 0x1FL) << ((this.pt & 7) << 3);
         // big-endian interpretation (right-to-left):
         // 0x04 = 00000100 = suffix 00, right padded with 1, right padded with 0*
         // 0x1F = 00011111 = suffix 1111, right-padded with 1, right-padded with 0*
-        this.b[this.rsiz - 1] ^= (byte)0x80;
+        this.st[(this.rsiz - 1) >>> 3] ^= 0x80L << (((this.rsiz - 1) & 7) << 3);
         // little-endian interpretation (left-to-right):
         // 1000 0000 = suffix 1, left-padded with 0*
-        sha3_keccakf(b);
         this.pt = 0;
     }
 
     /**
-     * Converts byte string to little endian then moves it to an array of long[]
-     * Performs Keccak rounds
-     * Converts back to byte[] and big endian
-     * @param A the state array as a byte[] string
+     * Absorb X[j][off[j] .. off[j] + len[j]) into s[j] for every j < n and switch all n sponges to
+     * squeezing. Each step absorbs the next block of every sponge that is not finished yet, or pads
+     * its last partial block, and permutes all of them together.
+     * The sponges must be at the start of a block with the same rate, as they are right after
+     * init256 or kinit256, or they are absorbed one by one. n must not exceed PERMUTATION.width().
+     * @param s the sponges
+     * @param X the message of each sponge
+     * @param off the offset of each message in its array
+     * @param len the length of each message
+     * @param n the number of sponges
      */
-    private void sha3_keccakf(byte[] A) {
-
-        A = swap_endianness(A);
-
-        // convert 8 bit bytes to 64 bit words
-        long[] st = new long[25];
-        for (int i = 0; i < 25; i++) {
-            for (int j = 0; j < 8; j++) {
-                st[i] ^= ((long) A[(i * 8) + j] & 0xFFL) << (8 * (7 - j));
-            }
+    static void xof(SHAKE[] s, byte[][] X, int[] off, int[] len, int n) {
+        int rsiz = s[0].rsiz;
+        boolean aligned = true;
+        for (int j = 0; j < n; j++) {
+            aligned &= s[j].pt == 0 && s[j].rsiz == rsiz;
         }
-
-        // actual iterations
-        for (int r = 0; r < KECCAKF_ROUNDS; r++) {
-            st = Rnd(st, r);
+        if (!aligned) {
+            for (int j = 0; j < n; j++) {
+                s[j].update(X[j], off[j], len[j]);
+                s[j].xof();
+            }
+            return;
         }
-
-        // convert 64 bit words back to 8 bit bytes
-        byte[] newA = new byte[200];
-        for (int i = 0; i < 25; i++) {
-            for (int j = 0; j < 8; j++) {
-                newA[(i * 8) + j] ^= (st[i] >> (8 * (7 - j))) & 0xFFL;
+        int lanes = rsiz >>> 3;
+        long[][] st = new long[n][];
+        int[] pos = new int[n];  // bytes of X[j] absorbed so far, or -1 once s[j] is padded
+        while (true) {
+            int m = 0;
+            for (int j = 0; j < n; j++) {
+                if (pos[j] < 0) {
+                    continue;
+                }
+                int rem = len[j] - pos[j];
+                if (rem >= rsiz) {
+                    long[] a = s[j].st;
+                    int o = off[j] + pos[j];
+                    for (int i = 0; i < lanes; i++) {
+                        a[i] ^= (long) LANE.get(X[j], o + (i << 3));
+                    }
+                    pos[j] += rsiz;
+                } else {
+                    s[j].update(X[j], off[j] + pos[j], rem);
+                    s[j].pad(0);
+                    pos[j] = -1;
+                }
+                st[m++] = s[j].st;
+            }
+            if (m == 0) {
+                return;
             }
+            PERMUTATION.keccakf(st, m);
         }
-
-        this.b = swap_endianness(newA);
     }
 
-    private long[] Rnd(long[] st, int ir) {
-        long[] bc = new long[5];
-        long t;
-
-        // Theta
-        for (int i = 0; i < 5; i++) {
-            bc[i] = st[i] ^ st[i + 5] ^ st[i + 10] ^ st[i + 15] ^ st[i + 20];
+    private static Permutation loadPermutation(String className) {
+        try {
+            return (Permutation) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
         }
+    }
 
-        for (int i = 0; i < 5; i++) {
-            t = bc[(i + 4) % 5] ^ ROTL64(bc[(i + 1) % 5], 1);
-            for (int j = 0; j < 25; j+= 5) {
-                st[j + i] ^= t;
-            }
+    /**
+     * Picks the vector backend when it is loaded and its lanes hold at least four states, which
+     * needs 256-bit vectors; with 128-bit vectors it is barely faster than the scalar pairs.
+     */
+    private static Permutation selectPermutation(String backend) {
+        if (VECTOR == null || backend.equals("scalar")) {
+            return SCALAR;
         }
+        return backend.equals("vector") || VECTOR.width() >= 4 ? VECTOR : SCALAR;
+    }
 
-        // Rho Pi
-        t = st[1];
-        for (int i = 0; i < 24; i++) {
-            int j = keccakf_piln[i];
-            bc[0] = st[j];
-            st[j] = ROTL64(t, keccakf_rotc[i]);
-            t = bc[0];
-        }
+    /**
+     * Performs the 24 Keccak-f[1600] rounds in place with the backend selected at startup.
+     * @param a the state array as 25 little-endian 64-bit lanes
+     */
+    static void sha3_keccakf(long[] a) {
+        PERMUTATION.keccakf(a);
+    }
 
-        // Chi
-        for (int j = 0; j < 25; j += 5) {
-            for (int i = 0; i < 5; i++) {
-                bc[i] = st[j + i];
-            }
-            for (int i = 0; i < 5; i++) {
-                st[j + i] ^= (~bc[(i + 1) % 5]) & bc[(i + 2) % 5];
-            }
+    /**
+     * Performs the 24 Keccak-f[1600] rounds in place on the 25 lanes of the state.
+     * The rounds are fully unrolled over local variables so that no temporary arrays are
+     * allocated and the lanes never have to be converted to or from bytes.
+     * @param a the state array as 25 little-endian 64-bit lanes
+     */
+    static void sha3_keccakf_scalar(long[] a) {
+        long a00 = a[0], a10 = a[1], a20 = a[2], a30 = a[3], a40 = a[4];
+        long a01 = a[5], a11 = a[6], a21 = a[7], a31 = a[8], a41 = a[9];
+        long a02 = a[10], a12 = a[11], a22 = a[12], a32 = a[13], a42 = a[14];
+        long a03 = a[15], a13 = a[16], a23 = a[17], a33 = a[18], a43 = a[19];
+        long a04 = a[20], a14 = a[21], a24 = a[22], a34 = a[23], a44 = a[24];
+
+        for (int ir = 0; ir < KECCAKF_ROUNDS; ir++) {
+            // Theta
+            long c0 = a00 ^ a01 ^ a02 ^ a03 ^ a04;
+            long c1 = a10 ^ a11 ^ a12 ^ a13 ^ a14;
+            long c2 = a20 ^ a21 ^ a22 ^ a23 ^ a24;
+            long c3 = a30 ^ a31 ^ a32 ^ a33 ^ a34;
+            long c4 = a40 ^ a41 ^ a42 ^ a43 ^ a44;
+            long d0 = c4 ^ Long.rotateLeft(c1, 1);
+            long d1 = c0 ^ Long.rotateLeft(c2, 1);
+            long d2 = c1 ^ Long.rotateLeft(c3, 1);
+            long d3 = c2 ^ Long.rotateLeft(c4, 1);
+            long d4 = c3 ^ Long.rotateLeft(c0, 1);
+            a00 ^= d0; a10 ^= d1; a20 ^= d2; a30 ^= d3; a40 ^= d4;
+            a01 ^= d0; a11 ^= d1; a21 ^= d2; a31 ^= d3; a41 ^= d4;
+            a02 ^= d0; a12 ^= d1; a22 ^= d2; a32 ^= d3; a42 ^= d4;
+            a03 ^= d0; a13 ^= d1; a23 ^= d2; a33 ^= d3; a43 ^= d4;
+            a04 ^= d0; a14 ^= d1; a24 ^= d2; a34 ^= d3; a44 ^= d4;
+
+            // Rho Pi
+            long b00 = a00;
+            long b10 = Long.rotateLeft(a11, 44);
+            long b20 = Long.rotateLeft(a22, 43);
+            long b30 = Long.rotateLeft(a33, 21);
+            long b40 = Long.rotateLeft(a44, 14);
+            long b01 = Long.rotateLeft(a30, 28);
+            long b11 = Long.rotateLeft(a41, 20);
+            long b21 = Long.rotateLeft(a02, 3);
+            long b31 = Long.rotateLeft(a13, 45);
+            long b41 = Long.rotateLeft(a24, 61);
+            long b02 = Long.rotateLeft(a10, 1);
+            long b12 = Long.rotateLeft(a21, 6);
+            long b22 = Long.rotateLeft(a32, 25);
+            long b32 = Long.rotateLeft(a43, 8);
+            long b42 = Long.rotateLeft(a04, 18);
+            long b03 = Long.rotateLeft(a40, 27);
+            long b13 = Long.rotateLeft(a01, 36);
+            long b23 = Long.rotateLeft(a12, 10);
+            long b33 = Long.rotateLeft(a23, 15);
+            long b43 = Long.rotateLeft(a34, 56);
+            long b04 = Long.rotateLeft(a20, 62);
+            long b14 = Long.rotateLeft(a31, 55);
+            long b24 = Long.rotateLeft(a42, 39);
+            long b34 = Long.rotateLeft(a03, 41);
+            long b44 = Long.rotateLeft(a14, 2);
+
+            // Chi
+            a00 = b00 ^ (~b10 & b20);
+            a10 = b10 ^ (~b20 & b30);
+            a20 = b20 ^ (~b30 & b40);
+            a30 = b30 ^ (~b40 & b00);
+            a40 = b40 ^ (~b00 & b10);
+            a01 = b01 ^ (~b11 & b21);
+            a11 = b11 ^ (~b21 & b31);
+            a21 = b21 ^ (~b31 & b41);
+            a31 = b31 ^ (~b41 & b01);
+            a41 = b41 ^ (~b01 & b11);
+            a02 = b02 ^ (~b12 & b22);
+            a12 = b12 ^ (~b22 & b32);
+            a22 = b22 ^ (~b32 & b42);
+            a32 = b32 ^ (~b42 & b02);
+            a42 = b42 ^ (~b02 & b12);
+            a03 = b03 ^ (~b13 & b23);
+            a13 = b13 ^ (~b23 & b33);
+            a23 = b23 ^ (~b33 & b43);
+            a33 = b33 ^ (~b43 & b03);
+            a43 = b43 ^ (~b03 & b13);
+            a04 = b04 ^ (~b14 & b24);
+            a14 = b14 ^ (~b24 & b34);
+            a24 = b24 ^ (~b34 & b44);
+            a34 = b34 ^ (~b44 & b04);
+            a44 = b44 ^ (~b04 & b14);
+
+            // Iota
+            a00 ^= keccakf_rndc[ir];
         }
 
-        // Iota
-        st[0] ^= keccakf_rndc[ir];
-
-        return st;
+        a[0] = a00; a[1] = a10; a[2] = a20; a[3] = a30; a[4] = a40;
+        a[5] = a01; a[6] = a11; a[7] = a21; a[8] = a31; a[9] = a41;
+        a[10] = a02; a[11] = a12; a[12] = a22; a[13] = a32; a[14] = a42;
+        a[15] = a03; a[16] = a13; a[17] = a23; a[18] = a33; a[19] = a43;
+        a[20] = a04; a[21] = a14; a[22] = a24; a[23] = a34; a[24] = a44;
     }
 
     /**
-     * Swaps the endian-ness of 64 bit words
-     * @param bytes
-     * @return
+     * Performs Keccak-f[1600] in place on two independent states at once. The two
+     * instruction streams are interleaved so their latencies can overlap.
+     * @param a the first state array as 25 little-endian 64-bit lanes
+     * @param b the second state array as 25 little-endian 64-bit lanes
      */
-    private byte[] swap_endianness(byte[] bytes) {
-        byte[] swap = new byte[bytes.length];
-        for (int i = 0; i < bytes.length;) {
-            for (int j = 7; j >= -8; j-= 2) {
-                swap[i] = bytes[i + j];
-                i++;
-            }
+    static void sha3_keccakf2(long[] a, long[] b) {
+        long a00 = a[0], a10 = a[1], a20 = a[2], a30 = a[3], a40 = a[4];
+        long a01 = a[5], a11 = a[6], a21 = a[7], a31 = a[8], a41 = a[9];
+        long a02 = a[10], a12 = a[11], a22 = a[12], a32 = a[13], a42 = a[14];
+        long a03 = a[15], a13 = a[16], a23 = a[17], a33 = a[18], a43 = a[19];
+        long a04 = a[20], a14 = a[21], a24 = a[22], a34 = a[23], a44 = a[24];
+        long b00 = b[0], b10 = b[1], b20 = b[2], b30 = b[3], b40 = b[4];
+        long b01 = b[5], b11 = b[6], b21 = b[7], b31 = b[8], b41 = b[9];
+        long b02 = b[10], b12 = b[11], b22 = b[12], b32 = b[13], b42 = b[14];
+        long b03 = b[15], b13 = b[16], b23 = b[17], b33 = b[18], b43 = b[19];
+        long b04 = b[20], b14 = b[21], b24 = b[22], b34 = b[23], b44 = b[24];
+
+        for (int ir = 0; ir < KECCAKF_ROUNDS; ir++) {
+            // Theta
+            long ac0 = a00 ^ a01 ^ a02 ^ a03 ^ a04;
+            long bc0 = b00 ^ b01 ^ b02 ^ b03 ^ b04;
+            long ac1 = a10 ^ a11 ^ a12 ^ a13 ^ a14;
+            long bc1 = b10 ^ b11 ^ b12 ^ b13 ^ b14;
+            long ac2 = a20 ^ a21 ^ a22 ^ a23 ^ a24;
+            long bc2 = b20 ^ b21 ^ b22 ^ b23 ^ b24;
+            long ac3 = a30 ^ a31 ^ a32 ^ a33 ^ a34;
+            long bc3 = b30 ^ b31 ^ b32 ^ b33 ^ b34;
+            long ac4 = a40 ^ a41 ^ a42 ^ a43 ^ a44;
+            long bc4 = b40 ^ b41 ^ b42 ^ b43 ^ b44;
+            long ad0 = ac4 ^ Long.rotateLeft(ac1, 1);
+            long bd0 = bc4 ^ Long.rotateLeft(bc1, 1);
+            long ad1 = ac0 ^ Long.rotateLeft(ac2, 1);
+            long bd1 = bc0 ^ Long.rotateLeft(bc2, 1);
+            long ad2 = ac1 ^ Long.rotateLeft(ac3, 1);
+            long bd2 = bc1 ^ Long.rotateLeft(bc3, 1);
+            long ad3 = ac2 ^ Long.rotateLeft(ac4, 1);
+            long bd3 = bc2 ^ Long.rotateLeft(bc4, 1);
+            long ad4 = ac3 ^ Long.rotateLeft(ac0, 1);
+            long bd4 = bc3 ^ Long.rotateLeft(bc0, 1);
+            a00 ^= ad0; a10 ^= ad1; a20 ^= ad2; a30 ^= ad3; a40 ^= ad4;
+            b00 ^= bd0; b10 ^= bd1; b20 ^= bd2; b30 ^= bd3; b40 ^= bd4;
+            a01 ^= ad0; a11 ^= ad1; a21 ^= ad2; a31 ^= ad3; a41 ^= ad4;
+            b01 ^= bd0; b11 ^= bd1; b21 ^= bd2; b31 ^= bd3; b41 ^= bd4;
+            a02 ^= ad0; a12 ^= ad1; a22 ^= ad2; a32 ^= ad3; a42 ^= ad4;
+            b02 ^= bd0; b12 ^= bd1; b22 ^= bd2; b32 ^= bd3; b42 ^= bd4;
+            a03 ^= ad0; a13 ^= ad1; a23 ^= ad2; a33 ^= ad3; a43 ^= ad4;
+            b03 ^= bd0; b13 ^= bd1; b23 ^= bd2; b33 ^= bd3; b43 ^= bd4;
+            a04 ^= ad0; a14 ^= ad1; a24 ^= ad2; a34 ^= ad3; a44 ^= ad4;
+            b04 ^= bd0; b14 ^= bd1; b24 ^= bd2; b34 ^= bd3; b44 ^= bd4;
+
+            // Rho Pi
+            long ab00 = a00;
+            long bb00 = b00;
+            long ab10 = Long.rotateLeft(a11, 44);
+            long bb10 = Long.rotateLeft(b11, 44);
+            long ab20 = Long.rotateLeft(a22, 43);
+            long bb20 = Long.rotateLeft(b22, 43);
+            long ab30 = Long.rotateLeft(a33, 21);
+            long bb30 = Long.rotateLeft(b33, 21);
+            long ab40 = Long.rotateLeft(a44, 14);
+            long bb40 = Long.rotateLeft(b44, 14);
+            long ab01 = Long.rotateLeft(a30, 28);
+            long bb01 = Long.rotateLeft(b30, 28);
+            long ab11 = Long.rotateLeft(a41, 20);
+            long bb11 = Long.rotateLeft(b41, 20);
+            long ab21 = Long.rotateLeft(a02, 3);
+            long bb21 = Long.rotateLeft(b02, 3);
+            long ab31 = Long.rotateLeft(a13, 45);
+            long bb31 = Long.rotateLeft(b13, 45);
+            long ab41 = Long.rotateLeft(a24, 61);
+            long bb41 = Long.rotateLeft(b24, 61);
+            long ab02 = Long.rotateLeft(a10, 1);
+            long bb02 = Long.rotateLeft(b10, 1);
+            long ab12 = Long.rotateLeft(a21, 6);
+            long bb12 = Long.rotateLeft(b21, 6);
+            long ab22 = Long.rotateLeft(a32, 25);
+            long bb22 = Long.rotateLeft(b32, 25);
+            long ab32 = Long.rotateLeft(a43, 8);
+            long bb32 = Long.rotateLeft(b43, 8);
+            long ab42 = Long.rotateLeft(a04, 18);
+            long bb42 = Long.rotateLeft(b04, 18);
+            long ab03 = Long.rotateLeft(a40, 27);
+            long bb03 = Long.rotateLeft(b40, 27);
+            long ab13 = Long.rotateLeft(a01, 36);
+            long bb13 = Long.rotateLeft(b01, 36);
+            long ab23 = Long.rotateLeft(a12, 10);
+            long bb23 = Long.rotateLeft(b12, 10);
+            long ab33 = Long.rotateLeft(a23, 15);
+            long bb33 = Long.rotateLeft(b23, 15);
+            long ab43 = Long.rotateLeft(a34, 56);
+            long bb43 = Long.rotateLeft(b34, 56);
+            long ab04 = Long.rotateLeft(a20, 62);
+            long bb04 = Long.rotateLeft(b20, 62);
+            long ab14 = Long.rotateLeft(a31, 55);
+            long bb14 = Long.rotateLeft(b31, 55);
+            long ab24 = Long.rotateLeft(a42, 39);
+            long bb24 = Long.rotateLeft(b42, 39);
+            long ab34 = Long.rotateLeft(a03, 41);
+            long bb34 = Long.rotateLeft(b03, 41);
+            long ab44 = Long.rotateLeft(a14, 2);
+            long bb44 = Long.rotateLeft(b14, 2);
+
+            // Chi
+            a00 = ab00 ^ (~ab10 & ab20);
+            b00 = bb00 ^ (~bb10 & bb20);
+            a10 = ab10 ^ (~ab20 & ab30);
+            b10 = bb10 ^ (~bb20 & bb30);
+            a20 = ab20 ^ (~ab30 & ab40);
+            b20 = bb20 ^ (~bb30 & bb40);
+            a30 = ab30 ^ (~ab40 & ab00);
+            b30 = bb30 ^ (~bb40 & bb00);
+            a40 = ab40 ^ (~ab00 & ab10);
+            b40 = bb40 ^ (~bb00 & bb10);
+            a01 = ab01 ^ (~ab11 & ab21);
+            b01 = bb01 ^ (~bb11 & bb21);
+            a11 = ab11 ^ (~ab21 & ab31);
+            b11 = bb11 ^ (~bb21 & bb31);
+            a21 = ab21 ^ (~ab31 & ab41);
+            b21 = bb21 ^ (~bb31 & bb41);
+            a31 = ab31 ^ (~ab41 & ab01);
+            b31 = bb31 ^ (~bb41 & bb01);
+            a41 = ab41 ^ (~ab01 & ab11);
+            b41 = bb41 ^ (~bb01 & bb11);
+            a02 = ab02 ^ (~ab12 & ab22);
+            b02 = bb02 ^ (~bb12 & bb22);
+            a12 = ab12 ^ (~ab22 & ab32);
+            b12 = bb12 ^ (~bb22 & bb32);
+            a22 = ab22 ^ (~ab32 & ab42);
+            b22 = bb22 ^ (~bb32 & bb42);
+            a32 = ab32 ^ (~ab42 & ab02);
+            b32 = bb32 ^ (~bb42 & bb02);
+            a42 = ab42 ^ (~ab02 & ab12);
+            b42 = bb42 ^ (~bb02 & bb12);
+            a03 = ab03 ^ (~ab13 & ab23);
+            b03 = bb03 ^ (~bb13 & bb23);
+            a13 = ab13 ^ (~ab23 & ab33);
+            b13 = bb13 ^ (~bb23 & bb33);
+            a23 = ab23 ^ (~ab33 & ab43);
+            b23 = bb23 ^ (~bb33 & bb43);
+            a33 = ab33 ^ (~ab43 & ab03);
+            b33 = bb33 ^ (~bb43 & bb03);
+            a43 = ab43 ^ (~ab03 & ab13);
+            b43 = bb43 ^ (~bb03 & bb13);
+            a04 = ab04 ^ (~ab14 & ab24);
+            b04 = bb04 ^ (~bb14 & bb24);
+            a14 = ab14 ^ (~ab24 & ab34);
+            b14 = bb14 ^ (~bb24 & bb34);
+            a24 = ab24 ^ (~ab34 & ab44);
+            b24 = bb24 ^ (~bb34 & bb44);
+            a34 = ab34 ^ (~ab44 & ab04);
+            b34 = bb34 ^ (~bb44 & bb04);
+            a44 = ab44 ^ (~ab04 & ab14);
+            b44 = bb44 ^ (~bb04 & bb14);
+
+            // Iota
+            a00 ^= keccakf_rndc[ir];
+            b00 ^= keccakf_rndc[ir];
         }
-        return swap;
-    }
 
-    private long ROTL64(long x, int y) {
-        long left = x << y;
-        long right = x >>> (64 - y);
-        return left | right;
+        a[0] = a00; a[1] = a10; a[2] = a20; a[3] = a30; a[4] = a40;
+        a[5] = a01; a[6] = a11; a[7] = a21; a[8] = a31; a[9] = a41;
+        a[10] = a02; a[11] = a12; a[12] = a22; a[13] = a32; a[14] = a42;
+        a[15] = a03; a[16] = a13; a[17] = a23; a[18] = a33; a[19] = a43;
+        a[20] = a04; a[21] = a14; a[22] = a24; a[23] = a34; a[24] = a44;
+        b[0] = b00; b[1] = b10; b[2] = b20; b[3] = b30; b[4] = b40;
+        b[5] = b01; b[6] = b11; b[7] = b21; b[8] = b31; b[9] = b41;
+        b[10] = b02; b[11] = b12; b[12] = b22; b[13] = b32; b[14] = b42;
+        b[15] = b03; b[16] = b13; b[17] = b23; b[18] = b33; b[19] = b43;
+        b[20] = b04; b[21] = b14; b[22] = b24; b[23] = b34; b[24] = b44;
     }
 }
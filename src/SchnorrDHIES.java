@@ -5,8 +5,13 @@
  */
 
 import java.math.BigInteger;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class SchnorrDHIES {
     public static final Ed448GPoint G = new Ed448GPoint(new BigInteger("8"), false);
@@ -22,12 +27,22 @@ public class SchnorrDHIES {
         BigInteger S = new BigInteger(s).shiftLeft(2).mod(Ed448GPoint.r);
 
         // V <- s*G
-        Ed448GPoint V = G.multiply(S);
+        Ed448GPoint V = Ed448BaseTable.multiply(S);
 
         // key pair: (s, V)
         return new KeyPair(s, V);
     }
 
+    // cryptograms of the encrypt-then-MAC version start with this header, and original (Z, c, t)
+    // cryptograms always start with a zero byte because Z starts with the zero-padded x-coordinate
+    static final byte[] HEADER = {(byte)'D', (byte)'H', (byte)'X', 2};
+
+    // |Z| + |t|, the bytes of an original cryptogram besides c
+    static final int LEGACY_OVERHEAD = 58 + 64;
+
+    // |header| + |Z| + |t|, the bytes of a cryptogram besides c
+    static final int OVERHEAD = HEADER.length + LEGACY_OVERHEAD;
+
     /**
      * Encrypt a message under a given public key.
      * @param m a given message
@@ -35,32 +50,84 @@ public class SchnorrDHIES {
      * @return the encrypted message
      */
     public static byte[] encrypt(byte[] m, Ed448GPoint V) {
+        byte[] cryptogram = new byte[m.length + OVERHEAD];
+        encrypt(ByteBuffer.wrap(m), V, ByteBuffer.wrap(cryptogram));
+        return cryptogram;
+    }
+
+    /**
+     * Encrypt the remaining bytes of m under a given public key, writing the cryptogram to out.
+     * The tag covers the header, Z and c, so receivers can reject a forged cryptogram before decrypting it.
+     * Either buffer may be memory-mapped; the position of m is left unchanged.
+     * @param m a given message
+     * @param V a given public key
+     * @param out the output, with at least m.remaining() + OVERHEAD bytes remaining
+     */
+    public static void encrypt(ByteBuffer m, Ed448GPoint V, ByteBuffer out) {
+        encrypt(m, new Ed448Window(new Ed448Projective(V)), out);
+    }
+
+    /**
+     * Encrypt like encrypt(m, V, out) under a public key from PublicKeyCache, reusing its precomputed multiples.
+     * @param m a given message
+     * @param V a given decoded public key
+     * @param out the output, with at least m.remaining() + OVERHEAD bytes remaining
+     */
+    public static void encrypt(ByteBuffer m, PublicKeyCache.DecodedKey V, ByteBuffer out) {
+        encrypt(m, V.window(), out);
+    }
+
+    private static void encrypt(ByteBuffer m, Ed448Window V, ByteBuffer out) {
         // k <- Random(512); k <- 4k
-        SecureRandom sr = new SecureRandom();
         byte[] k = new byte[64];
-        sr.nextBytes(k);
+        KeccakDRBG.current().nextBytes(k);
         BigInteger K = new BigInteger(k).shiftLeft(2).mod(Ed448GPoint.r);;
 
         // W <- k*V; Z <- k*G
-        Ed448GPoint W = V.multiply(K);
-        Ed448GPoint Z = G.multiply(K);
+        Ed448GPoint W = V.multiplyConstantTime(K).toAffine();
+        Ed448GPoint Z = Ed448BaseTable.multiply(K);
 
         // (ka || ke) <- KMACXOF256(Wx, “”, 1024, “PK”)
-        byte[] kake = KMACXOF256.KMACXOF256(W.x.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        byte[] kake = KMACXOF256.oneTimeKey(W.x.toByteArray(), "PK".getBytes()).doFinal(1024);
         byte[] ka = Arrays.copyOfRange(kake, 0, kake.length / 2);
         byte[] ke = Arrays.copyOfRange(kake, kake.length / 2, kake.length);
 
+        // cryptogram: (header, Z, c, t)
+        ByteBuffer authenticated = out.duplicate();
+        out.put(HEADER);
+        out.put(Z.getBytes());
+
         // c <- KMACXOF256(ke, “”, |m|, “PKE”) ^ m
-        byte[] c = KMACXOF256.KMACXOF256(ke, "".getBytes(), m.length * 8, "PKE".getBytes());
-        c = new BigInteger(c).xor(new BigInteger(m)).toByteArray();
+        KMACXOF256 enc = KMACXOF256.oneTimeKey(ke, "PKE".getBytes());
+        enc.xof();
+        enc.squeezeXor(m.duplicate(), out);
+
+        // t <- KMACXOF256(ka, header || Z || c, 512, “PKA”)
+        authenticated.limit(out.position());
+        KMACXOF256 auth = KMACXOF256.oneTimeKey(ka, "PKA".getBytes());
+        auth.update(authenticated);
+        out.put(auth.doFinal(512));
+    }
 
-        // t <- KMACXOF256(ka, m, 512, “PKA”)
-        byte[] t = KMACXOF256.KMACXOF256(ka, m, 512, "PKA".getBytes());
+    /**
+     * @param cryptogram the remaining bytes of a cryptogram of either version
+     * @return the length of the message it holds, or -1 if it is too short to be a cryptogram
+     */
+    public static int messageLength(ByteBuffer cryptogram) {
+        int overhead = isEncryptThenMac(cryptogram) ? OVERHEAD : LEGACY_OVERHEAD;
+        return cryptogram.remaining() >= overhead ? cryptogram.remaining() - overhead : -1;
+    }
 
-        // cryptogram: (Z, c, t)
-        byte[] cryptogram = Main.concat(Z.getBytes(), c);
-        cryptogram = Main.concat(cryptogram, t);
-        return cryptogram;
+    static boolean isEncryptThenMac(ByteBuffer cryptogram) {
+        if (cryptogram.remaining() < HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (cryptogram.get(cryptogram.position() + i) != HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -70,18 +137,47 @@ public class SchnorrDHIES {
      * @return a decrypted message
      */
     public static byte[] decrypt(byte[] cryptogram, String pw) {
-        if (cryptogram.length < 123) {
+        int length = messageLength(ByteBuffer.wrap(cryptogram));
+        if (length < 0) {
             System.out.println("File does not contain a cryptogram");
             return null;
         }
+        byte[] m = new byte[length];
+        return decrypt(ByteBuffer.wrap(cryptogram), pw, ByteBuffer.wrap(m)) ? m : null;
+    }
+
+    /**
+     * Decrypt the remaining bytes of a cryptogram of either version from a given password, writing the
+     * message to out. Either buffer may be memory-mapped. Encrypt-then-MAC cryptograms are authenticated
+     * before anything is written to out. The message of an original (Z, c, t) cryptogram can only be
+     * authenticated after it is written, so for those out must be discarded if this returns false.
+     * @param cryptogram a given elliptic-encrypted cryptogram, left unchanged
+     * @param pw a given password
+     * @param out the output, with at least messageLength(cryptogram) bytes remaining
+     * @return true if the cryptogram is authentic, otherwise false
+     */
+    public static boolean decrypt(ByteBuffer cryptogram, String pw, ByteBuffer out) {
+        if (messageLength(cryptogram) < 0) {
+            System.out.println("File does not contain a cryptogram");
+            return false;
+        }
+        boolean encryptThenMac = isEncryptThenMac(cryptogram);
 
-        byte[] z = Arrays.copyOfRange(cryptogram, 0, 58);
-        byte[] c = Arrays.copyOfRange(cryptogram, 58, cryptogram.length - 64);
-        byte[] t = Arrays.copyOfRange(cryptogram, cryptogram.length - 64, cryptogram.length);
+        ByteBuffer in = cryptogram.duplicate();
+        if (encryptThenMac) {
+            in.position(in.position() + HEADER.length);
+        }
+        byte[] z = new byte[58];
+        in.get(z);
+        ByteBuffer c = in.duplicate();
+        c.limit(in.limit() - 64);
+        byte[] t = new byte[64];
+        in.position(in.limit() - 64);
+        in.get(t);
         Ed448GPoint Z = Ed448GPoint.pointFromBytes(z);
         if (!Z.isOnCurve()) {
             System.out.println("File does not contain a valid cryptogram");
-            return null;
+            return false;
         }
 
         // s <- KMACXOF256(pw, “”, 512, “SK”); s <- 4s
@@ -89,27 +185,46 @@ public class SchnorrDHIES {
         BigInteger S = new BigInteger(s).shiftLeft(2).mod(Ed448GPoint.r);;
 
         // W <- s*Z
-        Ed448GPoint W = Z.multiply(S);
+        Ed448GPoint W = Z.multiplyConstantTime(S);
 
         // (ka || ke) <- KMACXOF256(Wx, “”, 1024, “PK”)
-        byte[] kake = KMACXOF256.KMACXOF256(W.x.toByteArray(), "".getBytes(), 1024, "PK".getBytes());
+        byte[] kake = KMACXOF256.oneTimeKey(W.x.toByteArray(), "PK".getBytes()).doFinal(1024);
         byte[] ka = Arrays.copyOfRange(kake, 0, kake.length / 2);
         byte[] ke = Arrays.copyOfRange(kake, kake.length / 2, kake.length);
+        KMACXOF256 auth = KMACXOF256.oneTimeKey(ka, "PKA".getBytes());
+
+        if (encryptThenMac) {
+            // t’ <- KMACXOF256(ka, header || Z || c, 512, “PKA”); reject before decrypting unless t’ = t
+            ByteBuffer authenticated = cryptogram.duplicate();
+            authenticated.limit(c.limit());
+            auth.update(authenticated);
+            if (!MessageDigest.isEqual(auth.doFinal(512), t)) {
+                System.out.println("Decryption unsuccessful");
+                return false;
+            }
+        }
 
         // m <- KMACXOF256(ke, “”, |c|, “PKE”) ^ c
-        byte[] m = KMACXOF256.KMACXOF256(ke, "".getBytes(), c.length * 8, "PKE".getBytes());
-        m = new BigInteger(m).xor(new BigInteger(c)).toByteArray();
+        ByteBuffer m = out.duplicate();
+        KMACXOF256 enc = KMACXOF256.oneTimeKey(ke, "PKE".getBytes());
+        enc.xof();
+        enc.squeezeXor(c, out);
+        m.limit(out.position());
+        if (encryptThenMac) {
+            return true;
+        }
 
         // t’ <- KMACXOF256(ka, m, 512, “PKA”)
-        byte[] tPrime = KMACXOF256.KMACXOF256(ka, m, 512, "PKA".getBytes());
+        auth.update(m);
+        byte[] tPrime = auth.doFinal(512);
 
         // accept if, and only if, t’ = t
-        if (Arrays.equals(tPrime, t)) {
-            return m;
+        if (MessageDigest.isEqual(tPrime, t)) {
+            return true;
         }
         else {
             System.out.println("Decryption unsuccessful");
-            return null;
+            return false;
         }
     }
 
@@ -120,19 +235,32 @@ public class SchnorrDHIES {
      * @return a signature
      */
     public static byte[] sign(byte[] m, String pw) {
+        return sign(ByteBuffer.wrap(m), pw);
+    }
+
+    /**
+     * Sign the remaining bytes of m, which may be memory-mapped, from a given password.
+     * m is read twice but its position is left unchanged.
+     * @param m a given message
+     * @param pw a given password
+     * @return a signature
+     */
+    public static byte[] sign(ByteBuffer m, String pw) {
         // s <- KMACXOF256(pw, “”, 512, “SK”); s <- 4s
         BigInteger s = new BigInteger(KMACXOF256.KMACXOF256(pw.getBytes(), "".getBytes(), 512, "SK".getBytes()));
         s = s.shiftLeft(2).mod(Ed448GPoint.r);
 
         //k <- KMACXOF256(s, m, 512, “N”); k <- 4k
-        BigInteger k = new BigInteger(KMACXOF256.KMACXOF256(s.toByteArray(), m, 512, "N".getBytes()));
+        KMACXOF256 nonce = KMACXOF256.oneTimeKey(s.toByteArray(), "N".getBytes());
+        nonce.update(m.duplicate());
+        BigInteger k = new BigInteger(nonce.doFinal(512));
         k = k.shiftLeft(2).mod(Ed448GPoint.r);
 
         //U <- k*G;
-        Ed448GPoint U = G.multiply(k);
+        Ed448GPoint U = Ed448BaseTable.multiply(k);
 
         //h <- KMACXOF256(Ux, m, 512, “T”); z <- (k – hs) mod r
-        BigInteger h = new BigInteger(KMACXOF256.KMACXOF256(U.x.toByteArray(), m, 512, "T".getBytes()));
+        BigInteger h = new BigInteger(tag(U, m));
         h = h.mod(Ed448GPoint.r);
         BigInteger z = k.subtract(h.multiply(s)).mod(Ed448GPoint.r);
 
@@ -153,24 +281,165 @@ public class SchnorrDHIES {
      * @return True if the signature is valid, otherwise false
      */
     public static boolean verify(byte[] signature, byte[] m, Ed448GPoint V) {
+        return verify(signature, ByteBuffer.wrap(m), V);
+    }
+
+    /**
+     * Verify the remaining bytes of m, which may be memory-mapped, and its signature under a given public key.
+     * The position of m is left unchanged.
+     * @param signature signature on the message
+     * @param m a given message
+     * @param V a given public key
+     * @return True if the signature is valid, otherwise false
+     */
+    public static boolean verify(byte[] signature, ByteBuffer m, Ed448GPoint V) {
         if (signature.length < 65) {
             return false;
         }
         if (!V.isOnCurve()) {
             return false;
         }
+        return verify(signature, m, new Ed448Window(new Ed448Projective(V)));
+    }
 
+    /**
+     * Verify like verify(signature, m, V) under a public key from PublicKeyCache, reusing its precomputed multiples.
+     * @param signature signature on the message
+     * @param m a given message
+     * @param V a given decoded public key
+     * @return True if the signature is valid, otherwise false
+     */
+    public static boolean verify(byte[] signature, ByteBuffer m, PublicKeyCache.DecodedKey V) {
+        if (signature.length < 65) {
+            return false;
+        }
+        return verify(signature, m, V.window());
+    }
+
+    private static boolean verify(byte[] signature, ByteBuffer m, Ed448Window V) {
         BigInteger h = new BigInteger(Arrays.copyOfRange(signature, 0, 64));
         BigInteger z = new BigInteger(Arrays.copyOfRange(signature, 64, signature.length));
 
         // U <- z*G + h*V
-        Ed448GPoint U = G.multiply(z).add(V.multiply(h));
-
-        // accept if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
-        BigInteger check = new BigInteger(KMACXOF256.KMACXOF256(U.x.toByteArray(), m, 512, "T".getBytes())).mod(Ed448GPoint.r);
+        Ed448GPoint U = Ed448BaseTable.multiplyAdd(z, h, V).toAffine();
 
+        return accepts(h, U, m);
+    }
 
+    /**
+     * @return true if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
+     */
+    private static boolean accepts(BigInteger h, Ed448GPoint U, ByteBuffer m) {
+        BigInteger check = new BigInteger(tag(U, m)).mod(Ed448GPoint.r);
         return h.equals(check);
     }
 
-}
\ No newline at end of file
+    // the signatures whose U are computed, and converted to affine with a single inversion, by one fork-join task
+    private static final int SIGNATURES_PER_TASK = 16;
+
+    /**
+     * Verify many messages and signatures, each under its own public key.
+     * @param signatures the signatures
+     * @param messages the messages, in the same order
+     * @param keys the public keys, in the same order
+     * @return for each index, true if the signature is valid, otherwise false
+     */
+    public static boolean[] verifyBatch(byte[][] signatures, byte[][] messages, Ed448GPoint[] keys) {
+        ByteBuffer[] m = new ByteBuffer[messages.length];
+        for (int i = 0; i < m.length; i++) {
+            m[i] = ByteBuffer.wrap(messages[i]);
+        }
+        return verifyBatch(signatures, m, keys);
+    }
+
+    /**
+     * Verify many messages and signatures, each under its own public key, on the common fork-join pool.
+     * A signature (h, z) carries no commitment U, only its hash h, so every U = z*G + h*V has to be
+     * recomputed and hashed, and there is no single equation to check with a random linear combination.
+     * Instead the batch shares what it can: one window per distinct key, the precomputed multiples of G,
+     * and one inversion per task for the conversion of its U to affine. Every signature gets its own result.
+     * The positions of the messages are left unchanged.
+     * @param signatures the signatures
+     * @param messages the messages, in the same order
+     * @param keys the public keys, in the same order
+     * @return for each index, true if the signature is valid, otherwise false
+     */
+    public static boolean[] verifyBatch(byte[][] signatures, ByteBuffer[] messages, Ed448GPoint[] keys) {
+        if (signatures.length != messages.length || signatures.length != keys.length) {
+            throw new IllegalArgumentException("signatures, messages and keys must have the same length");
+        }
+        // keys that fail validation keep a null window, and their signatures are rejected
+        Ed448Window[] windows = new Ed448Window[keys.length];
+        Map<ByteBuffer, Ed448Window> distinct = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            Ed448GPoint V = keys[i];
+            if (signatures[i].length >= 65 && V.isOnCurve()) {
+                windows[i] = distinct.computeIfAbsent(ByteBuffer.wrap(V.getBytes()),
+                        encoded -> new Ed448Window(new Ed448Projective(V)));
+            }
+        }
+        boolean[] valid = new boolean[signatures.length];
+        ForkJoinPool.commonPool().invoke(new VerifyTask(signatures, messages, windows, valid, 0, signatures.length));
+        return valid;
+    }
+
+    @SuppressWarnings("serial") // fork-join tasks are never serialized
+    private static final class VerifyTask extends RecursiveAction {
+        private final byte[][] signatures;
+        private final ByteBuffer[] messages;
+        private final Ed448Window[] windows;
+        private final boolean[] valid;
+        private final int lo;
+        private final int hi;
+
+        VerifyTask(byte[][] signatures, ByteBuffer[] messages, Ed448Window[] windows, boolean[] valid, int lo, int hi) {
+            this.signatures = signatures;
+            this.messages = messages;
+            this.windows = windows;
+            this.valid = valid;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SIGNATURES_PER_TASK) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new VerifyTask(signatures, messages, windows, valid, lo, mid),
+                        new VerifyTask(signatures, messages, windows, valid, mid, hi));
+                return;
+            }
+            int n = 0;
+            int[] index = new int[hi - lo];
+            BigInteger[] h = new BigInteger[hi - lo];
+            Ed448Projective[] U = new Ed448Projective[hi - lo];
+            for (int i = lo; i < hi; i++) {
+                if (windows[i] == null) {
+                    continue;
+                }
+                index[n] = i;
+                h[n] = new BigInteger(Arrays.copyOfRange(signatures[i], 0, 64));
+                BigInteger z = new BigInteger(Arrays.copyOfRange(signatures[i], 64, signatures[i].length));
+
+                // U <- z*G + h*V
+                U[n] = Ed448BaseTable.multiplyAdd(z, h[n], windows[i]);
+                n++;
+            }
+            U = Arrays.copyOf(U, n);
+            Ed448Projective.normalize(U);
+            for (int j = 0; j < n; j++) {
+                Ed448GPoint affine = new Ed448GPoint(U[j].X.toBigInteger(), U[j].Y.toBigInteger());
+                valid[index[j]] = accepts(h[j], affine, messages[index[j]]);
+            }
+        }
+    }
+
+    /**
+     * @return KMACXOF256(Ux, m, 512, “T”), leaving the position of m unchanged
+     */
+    private static byte[] tag(Ed448GPoint U, ByteBuffer m) {
+        KMACXOF256 kmac = KMACXOF256.oneTimeKey(U.x.toByteArray(), "T".getBytes());
+        kmac.update(m.duplicate());
+        return kmac.doFinal(512);
+    }
+}
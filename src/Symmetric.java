@@ -4,15 +4,25 @@
  */
 
 
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class Symmetric {
 	
+	// key and customization strings of the plain hash and of the MAC, shared with KMACXOF256Provider
+	static final byte[] HASH_KEY = {};
+	static final byte[] HASH_S = {'D'};
+	static final byte[] MAC_S = {'T'};
+
 	static int choice;
 	 public static void start(){
 		 while (true) {
@@ -70,30 +80,72 @@ public class Symmetric {
 	 }
 
 	 public static void computeTextPlain(boolean file){ //Compute plain cryptographic hash of a text
-		 byte[] m = {};
+		 if (file && Console.useParallelHash()) {
+			 computeParallelHash();
+			 return;
+		 }
+		 KMACXOF256 kmac = new KMACXOF256(HASH_KEY, HASH_S);
 		 if (file) {
-			 boolean fnf = true;
-			 while (fnf) {
-				 try {
-					 String fileName = Console.getFileName();
-					 m = Files.readAllBytes(Paths.get(fileName));
-					 fnf = false;
-				 } catch (IOException e) {
-					 System.out.println("!The file does not exist!");
-				 }
-			 }
+			 if (!absorbFile(kmac, inputPath())) { return; }
 		 }
 		 else {
-			 m = Console.getText().getBytes();
+			 kmac.update(Console.getText().getBytes());
 		 }
 
-		 byte[] hash = KMACXOF256.KMACXOF256("".getBytes(), m, 512, "D".getBytes());
+		 byte[] hash = kmac.doFinal(512);
 		 writeHash(hash);
 	 }
 
+	 /**
+	  * Hashes a file with ParallelHash256, spreading the leaf chunks over all cores.
+	  */
+	 public static void computeParallelHash() {
+		 while (true) {
+			 String fileName = Console.getFileName();
+			 try (FileChannel ch = FileChannel.open(Paths.get(fileName))) {
+				 byte[] hash = ParallelHash256.ParallelHash256(ch, ParallelHash256.DEFAULT_BLOCK_SIZE, 512, HASH_S);
+				 writeHash(hash);
+				 return;
+			 } catch (NoSuchFileException e) {
+				 System.out.println("!The file does not exist!");
+			 } catch (IOException e) {
+				 System.out.println("Could not read file");
+				 return;
+			 }
+		 }
+	 }
+
+	 /**
+	  * Asks for file names until one names an existing file.
+	  * @return the chosen file
+	  */
+	 private static Path inputPath() {
+		 while (true) {
+			 Path path = Paths.get(Console.getFileName());
+			 if (Files.isRegularFile(path)) {
+				 return path;
+			 }
+			 System.out.println("!The file does not exist!");
+		 }
+	 }
+
+	 /**
+	  * Feeds a file to kmac through memory-mapped windows, without copying it onto the heap.
+	  * @return true if the whole file was absorbed, false if reading failed
+	  */
+	 private static boolean absorbFile(KMACXOF256 kmac, Path path) {
+		 try {
+			 MappedIO.absorb(kmac, path);
+			 return true;
+		 } catch (IOException e) {
+			 System.out.println("Could not read file");
+			 return false;
+		 }
+	 }
+
 	 private static void writeHash(byte[] hash) {
-		 try (FileOutputStream fos = new FileOutputStream("encrypted.txt")) {
-			 fos.write(hash);
+		 try {
+			 MappedIO.write(Paths.get("encrypted.txt"), hash);
 		 }
 		 catch (IOException ioe) { System.out.println("Could not write hash to file"); }
 		 for (byte b : hash) {
@@ -105,18 +157,10 @@ public class Symmetric {
 	 public static void computeMAC(boolean file){ //Compute a MAC of a text from a given file under a given passphrase
 		 System.out.println("***chose number 2 insert file***");
 
+		 Path in = null;
 		 byte[] m = {};
 		 if (file) {
-			 boolean fnf = true;
-			 while (fnf) {
-				 try {
-					 String fileName = Console.getFileName();
-					 m = Files.readAllBytes(Paths.get(fileName));
-					 fnf = false;
-				 } catch (IOException e) {
-					 System.out.println("!The file does not exist!");
-				 }
-			 }
+			 in = inputPath();
 		 }
 		 else {
 			 m = Console.getText().getBytes();
@@ -124,53 +168,98 @@ public class Symmetric {
 
 		 String pw = Console.getPassword();
 
-		 byte[] mac = KMACXOF256.KMACXOF256(pw.getBytes(), m, 512, "T".getBytes());
+		 KMACXOF256 kmac = new KMACXOF256(pw.getBytes(), MAC_S);
+		 if (in != null) {
+			 if (!absorbFile(kmac, in)) { return; }
+		 }
+		 else {
+			 kmac.update(m);
+		 }
+		 byte[] mac = kmac.doFinal(512);
 		 writeHash(mac);
 	 }
 
 	 public static void encrypt() {
-		 byte[] m = {};
-		 boolean fnf = true;
-		 while (fnf) {
-			 try {
-				 String inputFileName = Console.getFileName();
-				 m = Files.readAllBytes(Paths.get(inputFileName));
-				 fnf = false;
-			 } catch (IOException e) {
-				 System.out.println("!The file does not exist!");
-			 }
-		 }
-
+		 Path path = inputPath();
 		 String pw = Console.getPassword();
-
-		 SymmetricCryptogram crypt = KMACXOF256.encrypt(m, pw); // since xof has to return value, txt will contain nothing
-		 try (FileOutputStream fos = new FileOutputStream("encrypted.txt")) {
-			 fos.write(crypt.getZ());
-			 fos.write(crypt.getC());
-			 fos.write(crypt.getT());
+		 try {
+			 encryptFile(path, Paths.get("encrypted.txt"), pw.getBytes(), segmentPool());
 		 } catch (IOException e) {
 			 System.out.println("Could not write cryptogram to file");
 		 }
 	 }
+
+	 /**
+	  * Encrypts in into a segmented cryptogram written to out. The cryptogram is written next to out and
+	  * only then moved over it, so out may be the input file itself, which is then read without a mapping.
+	  */
+	 static void encryptFile(Path in, Path out, byte[] pw, ForkJoinPool pool) throws IOException {
+		 Path partial = MappedIO.partial(out);
+		 try {
+			 try (InputStream is = MappedIO.inputStream(in, out);
+				  OutputStream os = MappedIO.outputStream(partial)) {
+				 SymmetricStream.encrypt(is, os, pw, SymmetricStream.DEFAULT_SEGMENT_SIZE, pool);
+			 }
+			 MappedIO.replace(partial, out);
+		 } finally {
+			 Files.deleteIfExists(partial);
+		 }
+	 }
 	 
 	 public static void decrypt() {
 		 // get the text from the input file
 		 // let user to out pw through the console
 		 // decrypt.
 
-		 byte[] bytes = {};
-		 boolean fnf = true;
-		 while (fnf) {
-			 try {
-				 String inputFileName = Console.getFileName();
-				 bytes = Files.readAllBytes(Paths.get(inputFileName));
-				 fnf = false;
-			 } catch (IOException e) {
-				 System.out.println("!The file does not exist!");
+		 Path path = inputPath();
+		 try {
+			 // segmented cryptograms start with a magic and version, older ones with the random z
+			 if (SymmetricStream.isSegmented(path)) {
+				 if (decryptSegmented(path, Paths.get("decrypted.txt"), Console.getPassword().getBytes(), segmentPool())) {
+					 System.out.println("Decrypted to decrypted.txt");
+				 }
+			 } else {
+				 decryptWhole(MappedIO.read(path), Console.getPassword());
 			 }
+		 } catch (IOException e) {
+			 System.out.println("Could not read file");
 		 }
+	 }
 
-		 String pw = Console.getPassword();
+	 /**
+	  * @return the common fork-join pool if the user opts into parallel segments, otherwise null
+	  */
+	 private static ForkJoinPool segmentPool() {
+		 return Console.useParallelEncryption() ? ForkJoinPool.commonPool() : null;
+	 }
+
+	 /**
+	  * Decrypts a segmented cryptogram into out, which only replaces out once every segment has been
+	  * authenticated, so out may be the input file itself, which is then read without a mapping, and is
+	  * left untouched on failure.
+	  * @return true if the cryptogram was authentic and out was written
+	  */
+	 static boolean decryptSegmented(Path in, Path out, byte[] pw, ForkJoinPool pool) throws IOException {
+		 Path partial = MappedIO.partial(out);
+		 try {
+			 boolean ok;
+			 try (InputStream is = MappedIO.inputStream(in, out);
+				  OutputStream os = MappedIO.outputStream(partial)) {
+				 ok = SymmetricStream.decrypt(is, os, pw, pool);
+			 }
+			 if (ok) {
+				 MappedIO.replace(partial, out);
+			 }
+			 return ok;
+		 } finally {
+			 Files.deleteIfExists(partial);
+		 }
+	 }
+
+	 /**
+	  * Decrypts a cryptogram in the original z || c || t format.
+	  */
+	 private static void decryptWhole(byte[] bytes, String pw) {
 		 byte[] z;
 		 byte[] c;
 		 byte[] t;
@@ -188,8 +277,8 @@ public class Symmetric {
 		}
 
 		if (m != null) {
-			try (FileOutputStream fos = new FileOutputStream("decrypted.txt")) {
-				fos.write(m);
+			try {
+				MappedIO.write(Paths.get("decrypted.txt"), m);
 			} catch (IOException ioe) {
 				System.out.println("Could not write hash to file");
 			}
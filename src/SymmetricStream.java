@@ -0,0 +1,521 @@
+/**
+ * Segmented symmetric cryptogram format for encrypting and decrypting data of any size in constant memory
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Layout: "KMX" || version || segment size (4 bytes, big-endian) || z, followed by the segments
+ * c_0 || t_0 || c_1 || t_1 || ... where every c_i except the last one is exactly one segment long.
+ *
+ * (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
+ * c_i <- KMACXOF256(ke, i, |m_i|, “SKE”) xor m_i
+ * t_i <- KMACXOF256(ka, header || i || final_i || c_i, 512, “SKA”)   (version 3, encrypt-then-MAC)
+ * t_i <- KMACXOF256(ka, header || i || final_i || m_i, 512, “SKA”)   (version 2)
+ * where i is the segment index as 8 big-endian bytes and final_i is 1 for the last segment and 0 otherwise,
+ * so segments cannot be reordered, dropped or truncated without the tags failing. Version 3 tags can be
+ * checked before any keystream is generated, so forged segments are rejected after a single MAC pass.
+ */
+public class SymmetricStream {
+
+    static final byte[] MAGIC = {(byte)'K', (byte)'M', (byte)'X'};
+    static final byte VERSION_SEGMENTED = 2;
+    static final byte VERSION_ENCRYPT_THEN_MAC = 3;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 16;
+    static final int MAX_SEGMENT_SIZE = 1 << 26;
+
+    static final int Z_LENGTH = 64;
+    static final int TAG_LENGTH = 64;
+    static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + Z_LENGTH;
+
+    // segments sealed or opened per batch and pool thread, so that every thread has more than one
+    private static final int SEGMENTS_PER_THREAD = 4;
+
+    /**
+     * Encrypt everything read from in under the passphrase pw, writing the segmented cryptogram to out.
+     * Only two segments are held in memory at any time. Neither stream is closed.
+     * @param in the plaintext
+     * @param out the cryptogram
+     * @param pw the passphrase
+     * @param segmentSize the plaintext bytes per segment
+     * @throws IOException if reading or writing fails
+     */
+    public static void encrypt(InputStream in, OutputStream out, byte[] pw, int segmentSize) throws IOException {
+        encrypt(in, out, pw, segmentSize, null);
+    }
+
+    /**
+     * Encrypt like encrypt(in, out, pw, segmentSize), sealing batches of segments in parallel on pool.
+     * Every segment has its own keystream and tag, so the cryptogram is the same as one encrypted
+     * sequentially and either engine can decrypt it. At most SEGMENTS_PER_THREAD segments per worker
+     * thread, plus one, are held in memory.
+     * @param in the plaintext
+     * @param out the cryptogram
+     * @param pw the passphrase
+     * @param segmentSize the plaintext bytes per segment
+     * @param pool the pool sealing the segments, or null to seal them on the calling thread
+     * @throws IOException if reading or writing fails
+     */
+    public static void encrypt(InputStream in, OutputStream out, byte[] pw, int segmentSize, ForkJoinPool pool) throws IOException {
+        encrypt(in, out, pw, segmentSize, pool, VERSION_ENCRYPT_THEN_MAC);
+    }
+
+    static void encrypt(InputStream in, OutputStream out, byte[] pw, int segmentSize, ForkJoinPool pool, byte version) throws IOException {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        }
+        // z <- Random(512)
+        byte[] z = new byte[Z_LENGTH];
+        KeccakDRBG.current().nextBytes(z);
+        byte[] header = header(version, segmentSize, z);
+        SegmentKeys keys = new SegmentKeys(header, z, pw);
+        out.write(header);
+
+        Batch batch = new Batch(pool, segmentSize, segmentSize);
+        for (long i = 0; ; i += batch.n) {
+            boolean last = batch.read(in, segmentSize);
+            batch.run(keys, i, last, true);
+            for (int k = 0; k < batch.n; k++) {
+                out.write(batch.bufs[k], 0, batch.lens[k]);
+                out.write(batch.tags[k]);
+            }
+            if (last) {
+                return;
+            }
+            batch.carry();
+        }
+    }
+
+    /**
+     * Decrypt a segmented cryptogram read from in under the passphrase pw, writing the plaintext to out.
+     * Each segment is authenticated before any of its plaintext is written. If a tag does not match,
+     * decryption stops, and whatever was already written to out must be discarded. Neither stream is closed.
+     * @param in the cryptogram
+     * @param out the plaintext
+     * @param pw the passphrase
+     * @return true if every segment was authentic and the cryptogram was complete, otherwise false
+     * @throws IOException if reading or writing fails
+     */
+    public static boolean decrypt(InputStream in, OutputStream out, byte[] pw) throws IOException {
+        return decrypt(in, out, pw, null);
+    }
+
+    /**
+     * Decrypt like decrypt(in, out, pw), opening batches of segments in parallel on pool.
+     * @param in the cryptogram
+     * @param out the plaintext
+     * @param pw the passphrase
+     * @param pool the pool opening the segments, or null to open them on the calling thread
+     * @return true if every segment was authentic and the cryptogram was complete, otherwise false
+     * @throws IOException if reading or writing fails
+     */
+    public static boolean decrypt(InputStream in, OutputStream out, byte[] pw, ForkJoinPool pool) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(in, header, HEADER_LENGTH) < HEADER_LENGTH || !isSegmented(header)) {
+            System.out.println("Given file does not contain a segmented Symmetric Cryptogram");
+            return false;
+        }
+        int segmentSize = segmentSize(header);
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            System.out.println("Given file does not contain a valid segmented Symmetric Cryptogram");
+            return false;
+        }
+        byte[] z = new byte[Z_LENGTH];
+        System.arraycopy(header, HEADER_LENGTH - Z_LENGTH, z, 0, Z_LENGTH);
+        SegmentKeys keys = new SegmentKeys(header, z, pw);
+
+        int record = segmentSize + TAG_LENGTH;
+        Batch batch = new Batch(pool, record, segmentSize);
+        for (long i = 0; ; i += batch.n) {
+            boolean last = batch.read(in, record);
+            // a record shorter than a tag can only be a cut-off final record
+            if (batch.lens[batch.n - 1] < TAG_LENGTH) {
+                System.out.println("Decryption unsuccessful: the cryptogram is truncated");
+                return false;
+            }
+            batch.run(keys, i, last, false);
+            for (int k = 0; k < batch.n; k++) {
+                if (!batch.ok[k]) {
+                    System.out.println("Decryption unsuccessful: t' does not match t in segment " + (i + k));
+                    return false;
+                }
+                out.write(batch.bufs[k], 0, batch.lens[k] - TAG_LENGTH);
+            }
+            if (last) {
+                return true;
+            }
+            batch.carry();
+        }
+    }
+
+    /**
+     * Decrypt length bytes of plaintext starting at offset from a segmented cryptogram file. Segments
+     * have a fixed size, so only the segments overlapping the range are read, with positioned reads,
+     * and each of them is authenticated before any of its plaintext is returned.
+     * @param path the cryptogram file
+     * @param offset the plaintext offset of the first byte
+     * @param length the number of plaintext bytes
+     * @param pw the passphrase
+     * @return the plaintext bytes, or null if the file is not a valid cryptogram, the range lies outside
+     *         the plaintext or a segment is not authentic
+     * @throws IOException if reading the file fails
+     */
+    public static byte[] decryptRange(Path path, long offset, int length, byte[] pw) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] header = new byte[HEADER_LENGTH];
+            if (ch.size() < HEADER_LENGTH + TAG_LENGTH || !readFully(ch, header, HEADER_LENGTH, 0)
+                    || !isSegmented(header)) {
+                System.out.println("Given file does not contain a segmented Symmetric Cryptogram");
+                return null;
+            }
+            int segmentSize = segmentSize(header);
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                System.out.println("Given file does not contain a valid segmented Symmetric Cryptogram");
+                return null;
+            }
+            long record = segmentSize + TAG_LENGTH;
+            long body = ch.size() - HEADER_LENGTH;
+            long segments = (body + record - 1) / record;
+            if (body - (segments - 1) * record < TAG_LENGTH) {
+                System.out.println("Decryption unsuccessful: the cryptogram is truncated");
+                return null;
+            }
+            long plaintextLength = body - segments * TAG_LENGTH;
+            if (offset < 0 || length < 0 || offset > plaintextLength - length) {
+                System.out.println("The range lies outside the " + plaintextLength + " byte plaintext");
+                return null;
+            }
+
+            byte[] z = new byte[Z_LENGTH];
+            System.arraycopy(header, HEADER_LENGTH - Z_LENGTH, z, 0, Z_LENGTH);
+            SegmentKeys keys = new SegmentKeys(header, z, pw);
+            byte[] m = new byte[length];
+            byte[] buf = new byte[(int) record];
+            long end = offset + length;
+            for (long i = offset / segmentSize; i * segmentSize < end; i++) {
+                long pos = i * record;
+                int len = (int) Math.min(record, body - pos);
+                if (len < TAG_LENGTH || !readFully(ch, buf, len, HEADER_LENGTH + pos)) {
+                    System.out.println("Decryption unsuccessful: the cryptogram is truncated");
+                    return null;
+                }
+                len -= TAG_LENGTH;
+                if (!keys.open(i, i == segments - 1, buf, len, buf, len)) {
+                    System.out.println("Decryption unsuccessful: t' does not match t in segment " + i);
+                    return null;
+                }
+                // copy the overlap of [offset, end) and this segment
+                long segStart = i * segmentSize;
+                long from = Math.max(offset, segStart);
+                long to = Math.min(end, segStart + len);
+                if (to > from) {
+                    System.arraycopy(buf, (int) (from - segStart), m, (int) (from - offset), (int) (to - from));
+                }
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Checks whether the first bytes of a file are the header of a segmented cryptogram.
+     * @param head at least the first four bytes of the file
+     * @return true if the file starts with the segmented format magic and version
+     */
+    public static boolean isSegmented(byte[] head) {
+        return head.length > MAGIC.length && hasMagic(head)
+                && (head[MAGIC.length] == VERSION_SEGMENTED || head[MAGIC.length] == VERSION_ENCRYPT_THEN_MAC);
+    }
+
+    /**
+     * Checks whether a file starts with the header of a segmented cryptogram.
+     * @param path the file
+     * @return true if the file starts with the segmented format magic and version
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSegmented(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] head = new byte[MAGIC.length + 1];
+            return readFully(ch, head, head.length, 0) && isSegmented(head);
+        }
+    }
+
+    static boolean hasMagic(byte[] head) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte version(byte[] header) {
+        return hasMagic(header) ? header[MAGIC.length] : 0;
+    }
+
+    static int segmentSize(byte[] header) {
+        int p = MAGIC.length + 1;
+        return ((header[p] & 0xFF) << 24) | ((header[p + 1] & 0xFF) << 16)
+                | ((header[p + 2] & 0xFF) << 8) | (header[p + 3] & 0xFF);
+    }
+
+    static byte[] header(byte version, int segmentSize, byte[] z) {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        int p = MAGIC.length;
+        header[p++] = version;
+        header[p++] = (byte) (segmentSize >>> 24);
+        header[p++] = (byte) (segmentSize >>> 16);
+        header[p++] = (byte) (segmentSize >>> 8);
+        header[p++] = (byte) segmentSize;
+        System.arraycopy(z, 0, header, p, Z_LENGTH);
+        return header;
+    }
+
+    /**
+     * Reads until len bytes have been read into b or the stream ends.
+     * @return the number of bytes read
+     */
+    static int readFully(InputStream in, byte[] b, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            int r = in.read(b, n, len - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    /**
+     * Reads exactly len bytes at position pos of ch into b.
+     * @return false if the channel ends first
+     */
+    static boolean readFully(FileChannel ch, byte[] b, int len, long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A run of consecutive segments (or records, when decrypting) read ahead of the one being written,
+     * plus one read-ahead buffer used to tell whether the last of them is the final segment.
+     */
+    private static final class Batch {
+        private final ForkJoinPool pool;
+        private final byte[][] bufs;
+        private final int[] lens;
+        private final byte[][] tags;
+        private final boolean[] ok;
+        // the number of segments in the current batch; bufs[n] holds the read-ahead, if any
+        private int n;
+
+        Batch(ForkJoinPool pool, int bufSize, int segmentSize) {
+            this.pool = pool;
+            int size = pool == null ? 1 : Math.max(1, SEGMENTS_PER_THREAD * pool.getParallelism());
+            this.bufs = new byte[size + 1][bufSize];
+            this.lens = new int[size + 1];
+            this.tags = new byte[size][TAG_LENGTH];
+            this.ok = new boolean[size];
+            this.lens[0] = -1;
+        }
+
+        /**
+         * Fills the batch with up to its capacity of segments of len bytes, the first of which may
+         * already have been read ahead by the previous batch.
+         * @return true if the batch ends with the final segment
+         */
+        boolean read(InputStream in, int len) throws IOException {
+            if (lens[0] < 0) {
+                lens[0] = readFully(in, bufs[0], len);
+            }
+            n = 0;
+            while (true) {
+                // a segment is the last one if it is short or nothing follows it
+                boolean full = lens[n] == len;
+                n++;
+                if (!full) {
+                    return true;
+                }
+                lens[n] = readFully(in, bufs[n], len);
+                if (lens[n] == 0) {
+                    return true;
+                }
+                if (n == tags.length) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Moves the read-ahead segment to the front for the next batch.
+         */
+        void carry() {
+            byte[] swap = bufs[0];
+            bufs[0] = bufs[n];
+            bufs[n] = swap;
+            lens[0] = lens[n];
+        }
+
+        /**
+         * Seals or opens every segment of the batch, whose first segment has index first.
+         */
+        void run(SegmentKeys keys, long first, boolean last, boolean seal) {
+            if (pool == null || n == 1) {
+                process(keys, first, last, seal, 0, n);
+            } else {
+                pool.invoke(new SegmentTask(this, keys, first, last, seal, 0, n));
+            }
+        }
+
+        private void process(SegmentKeys keys, long first, boolean last, boolean seal, int lo, int hi) {
+            for (int k = lo; k < hi; k++) {
+                boolean fin = last && k == n - 1;
+                if (seal) {
+                    keys.seal(first + k, fin, bufs[k], lens[k], tags[k]);
+                } else {
+                    int len = lens[k] - TAG_LENGTH;
+                    ok[k] = keys.open(first + k, fin, bufs[k], len, bufs[k], len);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial") // fork-join tasks are never serialized
+    private static final class SegmentTask extends RecursiveAction {
+        private final Batch batch;
+        private final SegmentKeys keys;
+        private final long first;
+        private final boolean last;
+        private final boolean seal;
+        private final int lo;
+        private final int hi;
+
+        SegmentTask(Batch batch, SegmentKeys keys, long first, boolean last, boolean seal, int lo, int hi) {
+            this.batch = batch;
+            this.keys = keys;
+            this.first = first;
+            this.last = last;
+            this.seal = seal;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                // the keys hold sponge state, so every task works on its own copy
+                batch.process(new SegmentKeys(keys), first, last, seal, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SegmentTask(batch, keys, first, last, seal, lo, mid),
+                    new SegmentTask(batch, keys, first, last, seal, mid, hi));
+        }
+    }
+
+    /**
+     * The per-cryptogram encryption and authentication keys, able to seal and open single segments.
+     */
+    static final class SegmentKeys {
+        private final byte[] header;
+        private final boolean encryptThenMac;
+        private final KMACXOF256 enc;
+        private final KMACXOF256 auth;
+        private final byte[] index = new byte[8];
+        private final byte[] flag = new byte[1];
+        private final byte[] tag = new byte[TAG_LENGTH];
+
+        SegmentKeys(byte[] header, byte[] z, byte[] pw) {
+            this.header = header;
+            this.encryptThenMac = version(header) == VERSION_ENCRYPT_THEN_MAC;
+            // (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
+            KMACXOF256 kdf = KMACXOF256.oneTimeKey(Main.concat(z, pw), "S".getBytes());
+            byte[] keka = kdf.doFinal(1024);
+            byte[] ke = new byte[keka.length / 2];
+            byte[] ka = new byte[keka.length / 2];
+            System.arraycopy(keka, 0, ke, 0, ke.length);
+            System.arraycopy(keka, ke.length, ka, 0, ka.length);
+            this.enc = KMACXOF256.oneTimeKey(ke, "SKE".getBytes());
+            this.auth = KMACXOF256.oneTimeKey(ka, "SKA".getBytes());
+        }
+
+        SegmentKeys(SegmentKeys other) {
+            this.header = other.header;
+            this.encryptThenMac = other.encryptThenMac;
+            this.enc = new KMACXOF256(other.enc);
+            this.auth = new KMACXOF256(other.auth);
+        }
+
+        /**
+         * Encrypts m_i in place and computes t_i into t, over c_i or m_i depending on the version.
+         */
+        void seal(long i, boolean last, byte[] m, int len, byte[] t) {
+            if (encryptThenMac) {
+                xorKeystream(i, m, len);
+                tag(i, last, m, len, t);
+            } else {
+                tag(i, last, m, len, t);
+                xorKeystream(i, m, len);
+            }
+        }
+
+        /**
+         * Checks c_i against the tag stored at t[toff] and decrypts it in place. With encrypt-then-MAC
+         * the tag is checked first, and a forged c_i is left as it is.
+         * @return true if the tag matches
+         */
+        boolean open(long i, boolean last, byte[] c, int len, byte[] t, int toff) {
+            byte[] expected = new byte[TAG_LENGTH];
+            System.arraycopy(t, toff, expected, 0, TAG_LENGTH);
+            if (encryptThenMac) {
+                tag(i, last, c, len, tag);
+                if (!MessageDigest.isEqual(tag, expected)) {
+                    return false;
+                }
+                xorKeystream(i, c, len);
+                return true;
+            }
+            xorKeystream(i, c, len);
+            tag(i, last, c, len, tag);
+            return MessageDigest.isEqual(tag, expected);
+        }
+
+        private void tag(long i, boolean last, byte[] m, int len, byte[] t) {
+            setIndex(i);
+            flag[0] = (byte) (last ? 1 : 0);
+            auth.update(header);
+            auth.update(index);
+            auth.update(flag);
+            auth.update(m, 0, len);
+            auth.doFinal(t, 0, TAG_LENGTH);
+        }
+
+        private void xorKeystream(long i, byte[] data, int len) {
+            setIndex(i);
+            enc.update(index);
+            enc.doFinalXor(data, 0, data, 0, len);
+        }
+
+        private void setIndex(long i) {
+            for (int j = 0; j < 8; j++) {
+                index[j] = (byte) (i >>> (56 - 8 * j));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * TupleHash256 and TupleHashXOF256 as per NIST SP 800-185, hashing a sequence of strings
+ * without concatenating them first
+ * @author Justin Goding, Yeseong Jeon, Andrew Lau
+ */
+
+public class TupleHash256 {
+
+    /**
+     * Compute TupleHash256(X, L, S), whose output depends on the requested length L.
+     * @param X the tuple of strings
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return the L-bit digest
+     */
+    public static byte[] TupleHash256(byte[][] X, int L, byte[] S) {
+        return tupleHash(X, L, S, L);
+    }
+
+    /**
+     * Compute TupleHashXOF256(X, L, S).
+     * @param X the tuple of strings
+     * @param L the output length in bits (must be a multiple of 8)
+     * @param S the customization string
+     * @return L bits of output
+     */
+    public static byte[] TupleHashXOF256(byte[][] X, int L, byte[] S) {
+        return tupleHash(X, L, S, 0);
+    }
+
+    private static byte[] tupleHash(byte[][] X, int L, byte[] S, long encodedL) {
+        if ((L & 7) != 0) {
+            throw new RuntimeException("Implementation restriction: output length (in bits) must be multiple of 8");
+        }
+        SHAKE shake = new SHAKE();
+        shake.cinit256("TupleHash".getBytes(), S);
+        // 1. z = "" ; 2. for i = 1 to n: z = z || encode_string(X[i])
+        for (byte[] x : X) {
+            shake.absorb_encode_string(x);
+        }
+        // 3. newX = z || right_encode(L)
+        shake.absorb_right_encode(encodedL);
+        // 4. return cSHAKE256(newX, L, "TupleHash", S)
+        byte[] val = new byte[L >>> 3];
+        shake.xof();
+        shake.out(val, L >>> 3);
+        return val;
+    }
+}
@@ -1,13 +1,34 @@
 /**
- * Unit Tests for Edwards Elliptic Curve Arithmetic
+ * Unit Tests for KMACXOF256, Edwards Elliptic Curve Arithmetic
  * and Schnorr/DHIES encryption and signatures
  * @author Justin Goding
  */
 
 import org.junit.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.module.ModuleFinder;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 public class UnitTests {
 
@@ -135,4 +156,756 @@ public class UnitTests {
         Assert.assertTrue(verification);
     }
 
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    // NIST SP 800-185 sample key 0x40..0x5F
+    private static byte[] sampleKey() {
+        byte[] K = new byte[32];
+        for (int i = 0; i < K.length; i++) { K[i] = (byte) (0x40 + i); }
+        return K;
+    }
+
+    // NIST SP 800-185 sample data 0x00..(n - 1)
+    private static byte[] sampleData(int n) {
+        byte[] X = new byte[n];
+        for (int i = 0; i < n; i++) { X[i] = (byte) i; }
+        return X;
+    }
+
+    // KMACXOF256 sample #4
+    @Test
+    public void testKMACXOF256Sample4() {
+        byte[] expected = hexToBytes("1755133F1534752AAD0748F2C706FB5C784512CAB835CD15676B16C0C6647FA9"
+                + "6FAA7AF634A0BF8FF6DF39374FA00FAD9A39E322A7C92065A64EB1FB0801EB2B");
+        byte[] val = KMACXOF256.KMACXOF256(sampleKey(), sampleData(4), 512, "My Tagged Application".getBytes());
+        Assert.assertArrayEquals(expected, val);
+    }
+
+    // KMACXOF256 sample #6 (message spans more than one block)
+    @Test
+    public void testKMACXOF256Sample6() {
+        byte[] expected = hexToBytes("D5BE731C954ED7732846BB59DBE3A8E30F83E77A4BFF4459F2F1C2B4ECEBB8CE"
+                + "67BA01C62E8AB8578D2D499BD1BB276768781190020A306A97DE281DCC30305D");
+        byte[] val = KMACXOF256.KMACXOF256(sampleKey(), sampleData(200), 512, "My Tagged Application".getBytes());
+        Assert.assertArrayEquals(expected, val);
+    }
+
+    // incremental KMACXOF256 over pieces == one-shot KMACXOF256
+    @Test
+    public void testKMACXOF256Incremental() throws IOException {
+        byte[] X = new byte[100000];
+        new Random(3).nextBytes(X);
+        byte[] expected = KMACXOF256.KMACXOF256(sampleKey(), X, 512, "T".getBytes());
+
+        KMACXOF256 kmac = new KMACXOF256(sampleKey(), "T".getBytes());
+        kmac.update(X, 0, 7);
+        kmac.update(ByteBuffer.wrap(X, 7, 993));
+        ByteBuffer direct = ByteBuffer.allocateDirect(20000);
+        direct.put(X, 1000, 20000).flip();
+        kmac.update(direct);
+        kmac.update(new ByteArrayInputStream(X, 21000, 40000));
+        kmac.update(Channels.newChannel(new ByteArrayInputStream(X, 61000, 39000)));
+        Assert.assertArrayEquals(expected, kmac.doFinal(512));
+
+        // the object is reusable after doFinal
+        kmac.update(X);
+        Assert.assertArrayEquals(expected, kmac.doFinal(512));
+    }
+
+    // a snapshot of a sponge continues exactly like the original
+    @Test
+    public void testSHAKESnapshot() {
+        byte[] X = sampleData(200);
+        SHAKE shake = new SHAKE();
+        shake.kinit256(sampleKey(), "My Tagged Application".getBytes());
+        shake.update(X, 0, 77);
+        SHAKE copy = new SHAKE(shake);
+        shake.update(X, 77, 123);
+        copy.update(X, 77, 123);
+        byte[] a = new byte[64];
+        byte[] b = new byte[64];
+        shake.xof();
+        shake.out(a, 64);
+        copy.xof();
+        copy.out(b, 64);
+        Assert.assertArrayEquals(a, b);
+        Assert.assertArrayEquals(KMACXOF256.KMACXOF256(sampleKey(), X, 512, "My Tagged Application".getBytes()), a);
+    }
+
+    // a recently used (K, S) reuses its keyed state, and one pushed out by newer keys is rebuilt
+    @Test
+    public void testKeyedStateCache() {
+        byte[] K = "cached key".getBytes();
+        byte[] S = "S".getBytes();
+        SHAKE state = KMACXOF256.keyedState(K, S);
+        Assert.assertSame(state, KMACXOF256.keyedState(K.clone(), S.clone()));
+        for (int i = 0; i < KMACXOF256.KEYED_CACHE_SIZE; i++) {
+            KMACXOF256.keyedState(("other key " + i).getBytes(), S);
+        }
+        SHAKE rebuilt = KMACXOF256.keyedState(K, S);
+        Assert.assertNotSame(state, rebuilt);
+        Assert.assertArrayEquals(KMACXOF256.oneTimeKey(K, S).doFinal(512), new KMACXOF256(K, S).doFinal(512));
+    }
+
+    // NIST SP 800-185 ParallelHash sample data 00..07 10..17 20..27
+    private static byte[] parallelHashData() {
+        byte[] X = new byte[24];
+        for (int i = 0; i < X.length; i++) { X[i] = (byte) ((i / 8) * 16 + i % 8); }
+        return X;
+    }
+
+    // ParallelHash256 sample #4
+    @Test
+    public void testParallelHash256Sample4() {
+        byte[] expected = hexToBytes("BC1EF124DA34495E948EAD207DD9842235DA432D2BBC54B4C110E64C45110553"
+                + "1B7F2A3E0CE055C02805E7C2DE1FB746AF97A1DD01F43B824E31B87612410429");
+        Assert.assertArrayEquals(expected, ParallelHash256.ParallelHash256(parallelHashData(), 8, 512, "".getBytes()));
+    }
+
+    // ParallelHash256 sample #5
+    @Test
+    public void testParallelHash256Sample5() {
+        byte[] expected = hexToBytes("CDF15289B54F6212B4BC270528B49526006DD9B54E2B6ADD1EF6900DDA3963BB"
+                + "33A72491F236969CA8AFAEA29C682D47A393C065B38E29FAE651A2091C833110");
+        Assert.assertArrayEquals(expected, ParallelHash256.ParallelHash256(parallelHashData(), 8, 512, "Parallel Data".getBytes()));
+    }
+
+    // ParallelHash256 computed one leaf after another, straight from the SP 800-185 definition
+    private static byte[] parallelHashSequential(byte[] X, int B, int L, byte[] S) {
+        SHAKE shake = new SHAKE();
+        shake.cinit256("ParallelHash".getBytes(), S);
+        shake.absorb_left_encode(B);
+        long n = (X.length + B - 1) / B;
+        byte[] leaf = new byte[64];
+        for (int start = 0; start < X.length; start += B) {
+            SHAKE s = new SHAKE();
+            s.init256();
+            s.update(X, start, Math.min(B, X.length - start));
+            s.xof();
+            s.out(leaf, leaf.length);
+            shake.update(leaf, leaf.length);
+        }
+        shake.absorb_right_encode(n);
+        shake.absorb_right_encode(L);
+        byte[] val = new byte[L >>> 3];
+        shake.xof();
+        shake.out(val, val.length);
+        return val;
+    }
+
+    // inputs of more than one batch of leaves, with a short last leaf, match the sequential definition
+    @Test
+    public void testParallelHash256Batches() {
+        byte[] X = Arrays.copyOf(sampleData(200), 8 * 2500 + 5);
+        byte[] S = "Parallel Data".getBytes();
+        Assert.assertArrayEquals(parallelHashSequential(X, 8, 256, S), ParallelHash256.ParallelHash256(X, 8, 256, S));
+    }
+
+    // hashing a file through its channel gives the digest of its contents
+    @Test
+    public void testParallelHash256FileChannel() throws IOException {
+        byte[] X = Arrays.copyOf(sampleData(200), 100_003);
+        byte[] S = "Parallel Data".getBytes();
+        Path path = Files.createTempFile("parallelhash", ".bin");
+        try {
+            Files.write(path, X);
+            try (FileChannel ch = FileChannel.open(path)) {
+                Assert.assertArrayEquals(ParallelHash256.ParallelHash256(X, 1000, 512, S),
+                        ParallelHash256.ParallelHash256(ch, 1000, 512, S));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // batched KMACXOF256 == one-shot KMACXOF256 for every message
+    @Test
+    public void testKMACXOF256Batch() {
+        Random random = new Random(6);
+        byte[][] X = new byte[19][];
+        for (int i = 0; i < X.length; i++) {
+            X[i] = new byte[random.nextInt(400)];
+            random.nextBytes(X[i]);
+        }
+        byte[][] vals = KMACXOF256.KMACXOF256(sampleKey(), X, 512, "T".getBytes());
+        for (int i = 0; i < X.length; i++) {
+            Assert.assertArrayEquals(KMACXOF256.KMACXOF256(sampleKey(), X[i], 512, "T".getBytes()), vals[i]);
+        }
+    }
+
+    // Keccak-f[1600] of the all-zero state, and every available backend == scalar on random
+    // states, one at a time and in groups of every size up to the backend's width
+    @Test
+    public void testKeccakPermutationBackends() {
+        long[] a = new long[25];
+        SHAKE.SCALAR.keccakf(a);
+        Assert.assertEquals(0xF1258F7940E1DDE7L, a[0]);
+        Assert.assertEquals(0xEAF1FF7B5CECA249L, a[24]);
+        Random random = new Random(7);
+        for (SHAKE.Permutation backend : SHAKE.VECTOR == null
+                ? List.of(SHAKE.SCALAR) : List.of(SHAKE.SCALAR, SHAKE.VECTOR)) {
+            for (int n = 1; n <= backend.width(); n++) {
+                long[][] expected = new long[n][25];
+                long[][] states = new long[n][];
+                for (int j = 0; j < n; j++) {
+                    for (int k = 0; k < 25; k++) { expected[j][k] = random.nextLong(); }
+                    states[j] = expected[j].clone();
+                    SHAKE.sha3_keccakf_scalar(expected[j]);
+                }
+                backend.keccakf(states, n);
+                Assert.assertArrayEquals(expected, states);
+                backend.keccakf(states[0]);
+                SHAKE.sha3_keccakf_scalar(expected[0]);
+                Assert.assertArrayEquals(expected[0], states[0]);
+            }
+        }
+    }
+
+    // the whole suite again in a JVM with the jdk.incubator.vector module and the vector backend
+    // forced, so that the check above and every known-answer test also run on it
+    @Test
+    public void testVectorBackendSuite() throws Exception {
+        Path source = Path.of("src-vector", "KeccakVector.java");
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeTrue(SHAKE.VECTOR == null && Files.exists(source) && javac != null
+                && ModuleFinder.ofSystem().find("jdk.incubator.vector").isPresent());
+        String classPath = System.getProperty("java.class.path");
+        Path classes = Files.createTempDirectory("keccak-vector");
+        try {
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            Assert.assertEquals(log.toString(), 0, javac.run(null, log, log, "--add-modules", "jdk.incubator.vector",
+                    "-cp", classPath, "-d", classes.toString(), source.toString()));
+            Process suite = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "--add-modules", "jdk.incubator.vector", "-Dkeccak.backend=vector",
+                    "-cp", classes + File.pathSeparator + classPath, "org.junit.runner.JUnitCore", "UnitTests")
+                    .redirectErrorStream(true).start();
+            String output = new String(suite.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            Assert.assertEquals(output, 0, suite.waitFor());
+        } finally {
+            try (Stream<Path> walk = Files.walk(classes)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // SP 800-185 integer encodings
+    @Test
+    public void testEncodings() {
+        Assert.assertArrayEquals(new byte[]{1, 0}, SHAKE.left_encode(0));
+        Assert.assertArrayEquals(new byte[]{1, (byte) 0x88}, SHAKE.left_encode(136));
+        Assert.assertArrayEquals(new byte[]{3, 1, 0, 0}, SHAKE.left_encode(65536));
+        Assert.assertArrayEquals(new byte[]{0, 1}, SHAKE.right_encode(0));
+        Assert.assertArrayEquals(new byte[]{2, 0, 2}, SHAKE.right_encode(512));
+        Assert.assertArrayEquals(new byte[]{(byte) 0x7F, -1, -1, -1, -1, -1, -1, -1, 8}, SHAKE.right_encode(Long.MAX_VALUE));
+    }
+
+    // SHAKE128 of the empty string
+    @Test
+    public void testSHAKE128Empty() {
+        byte[] expected = hexToBytes("7F9C2BA4E88F827D616045507605853ED73B8093F6EFBC88EB1A6EACFA66EF26");
+        Assert.assertArrayEquals(expected, CSHAKE.SHAKE128("".getBytes(), 256));
+    }
+
+    // cSHAKE128 sample #1
+    @Test
+    public void testcSHAKE128Sample1() {
+        byte[] expected = hexToBytes("C1C36925B6409A04F1B504FCBCA9D82B4017277CB5ED2B2065FC1D3814D5AAF5");
+        Assert.assertArrayEquals(expected, CSHAKE.cSHAKE128(sampleData(4), 256, "".getBytes(), "Email Signature".getBytes()));
+    }
+
+    // cSHAKE256 sample #3
+    @Test
+    public void testcSHAKE256Sample3() {
+        byte[] expected = hexToBytes("D008828E2B80AC9D2218FFEE1D070C48B8E4C87BFF32C9699D5B6896EEE0EDD1"
+                + "64020E2BE0560858D9C00C037E34A96937C561A74C412BB4C746469527281C8C");
+        Assert.assertArrayEquals(expected, CSHAKE.cSHAKE256(sampleData(4), 512, "".getBytes(), "Email Signature".getBytes()));
+    }
+
+    // KMAC128 sample #1
+    @Test
+    public void testKMAC128Sample1() {
+        byte[] expected = hexToBytes("E5780B0D3EA6F7D3A429C5706AA43A00FADBD7D49628839E3187243F456EE14E");
+        Assert.assertArrayEquals(expected, KMAC128.KMAC128(sampleKey(), sampleData(4), 256, "".getBytes()));
+    }
+
+    // KMACXOF128 sample #1
+    @Test
+    public void testKMACXOF128Sample1() {
+        byte[] expected = hexToBytes("CD83740BBD92CCC8CF032B1481A0F4460E7CA9DD12B08A0C4031178BACD6EC35");
+        Assert.assertArrayEquals(expected, KMAC128.KMACXOF128(sampleKey(), sampleData(4), 256, "".getBytes()));
+    }
+
+    // TupleHash256 sample #4
+    @Test
+    public void testTupleHash256Sample4() {
+        byte[] expected = hexToBytes("CFB7058CACA5E668F81A12A20A2195CE97A925F1DBA3E7449A56F82201EC6073"
+                + "11AC2696B1AB5EA2352DF1423BDE7BD4BB78C9AED1A853C78672F9EB23BBE194");
+        byte[][] X = {sampleData(3), {0x10, 0x11, 0x12, 0x13, 0x14, 0x15}};
+        Assert.assertArrayEquals(expected, TupleHash256.TupleHash256(X, 512, "".getBytes()));
+    }
+
+    // the JCA MessageDigest and Mac match the one-shot hash and MAC, also when cloned mid-stream
+    @Test
+    public void testKMACXOF256Provider() throws Exception {
+        byte[] X = sampleData(250);
+        KMACXOF256Provider provider = new KMACXOF256Provider();
+
+        MessageDigest md = MessageDigest.getInstance("KMACXOF256", provider);
+        try (DigestInputStream in = new DigestInputStream(new ByteArrayInputStream(X, 0, 100), md)) {
+            while (in.read() != -1) { }
+        }
+        MessageDigest copy = (MessageDigest) md.clone();
+        md.update(X, 100, 150);
+        Assert.assertArrayEquals(KMACXOF256.KMACXOF256("".getBytes(), X, 512, "D".getBytes()), md.digest());
+        Assert.assertArrayEquals(KMACXOF256.KMACXOF256("".getBytes(), Arrays.copyOf(X, 100), 512, "D".getBytes()), copy.digest());
+
+        Mac mac = Mac.getInstance("KMACXOF256", provider);
+        mac.init(new SecretKeySpec("password".getBytes(), "KMACXOF256"));
+        mac.update(X);
+        Assert.assertArrayEquals(KMACXOF256.KMACXOF256("password".getBytes(), X, 512, "T".getBytes()), mac.doFinal());
+    }
+
+    // segmented cryptograms round-trip at every segment boundary and reject any changed, dropped or truncated segment
+    @Test
+    public void testSymmetricStream() throws IOException {
+        byte[] pw = "password".getBytes();
+        for (int n : new int[] {0, 1, 16, 17, 48, 50}) {
+            byte[] m = sampleData(n);
+            ByteArrayOutputStream crypt = new ByteArrayOutputStream();
+            SymmetricStream.encrypt(new ByteArrayInputStream(m), crypt, pw, 16);
+            byte[] c = crypt.toByteArray();
+            ByteArrayOutputStream dec = new ByteArrayOutputStream();
+            Assert.assertTrue(SymmetricStream.decrypt(new ByteArrayInputStream(c), dec, pw));
+            Assert.assertArrayEquals(m, dec.toByteArray());
+
+            c[c.length - 1] ^= 1;
+            Assert.assertFalse(SymmetricStream.decrypt(new ByteArrayInputStream(c), new ByteArrayOutputStream(), pw));
+            c[c.length - 1] ^= 1;
+            if (n > 16) {
+                byte[] truncated = Arrays.copyOf(c, SymmetricStream.HEADER_LENGTH + 16 + 64);
+                Assert.assertFalse(SymmetricStream.decrypt(new ByteArrayInputStream(truncated), new ByteArrayOutputStream(), pw));
+            }
+            Assert.assertFalse(SymmetricStream.decrypt(new ByteArrayInputStream(c), new ByteArrayOutputStream(), "wrong".getBytes()));
+        }
+    }
+
+    // the keystream xor matches KMACXOF256(K, "", L, S) xor m at any offset, and ciphertexts keep the plaintext length
+    @Test
+    public void testXorKeystream() {
+        byte[] m = new byte[203];
+        m[5] = 1;
+        byte[] ks = KMACXOF256.KMACXOF256(sampleKey(), "".getBytes(), 8 * 190, "SKE".getBytes());
+        byte[] c = m.clone();
+        KMACXOF256.xorKeystream(sampleKey(), "SKE".getBytes(), c, 13, c, 13, 190);
+        for (int i = 0; i < m.length; i++) {
+            Assert.assertEquals(i >= 13 && i < 203 ? (byte) (m[i] ^ ks[i - 13]) : m[i], c[i]);
+        }
+
+        SymmetricCryptogram crypt = KMACXOF256.encrypt(m, "password");
+        Assert.assertEquals(m.length, crypt.getC().length);
+        Assert.assertArrayEquals(m, KMACXOF256.decrypt(crypt.getZ(), crypt.getC(), crypt.getT(), "password".getBytes()));
+    }
+
+    // segments sealed on a pool decrypt sequentially and vice versa, with tampering still caught in any batch
+    @Test
+    public void testSymmetricStreamParallel() throws IOException {
+        byte[] pw = "password".getBytes();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int n : new int[] {0, 16, 191, 192, 193, 1000}) {
+                byte[] m = sampleData(n % 256);
+                m = Arrays.copyOf(m, n);
+                ByteArrayOutputStream crypt = new ByteArrayOutputStream();
+                SymmetricStream.encrypt(new ByteArrayInputStream(m), crypt, pw, 16, pool);
+                byte[] c = crypt.toByteArray();
+                ByteArrayOutputStream dec = new ByteArrayOutputStream();
+                Assert.assertTrue(SymmetricStream.decrypt(new ByteArrayInputStream(c), dec, pw));
+                Assert.assertArrayEquals(m, dec.toByteArray());
+
+                crypt.reset();
+                SymmetricStream.encrypt(new ByteArrayInputStream(m), crypt, pw, 16);
+                c = crypt.toByteArray();
+                dec.reset();
+                Assert.assertTrue(SymmetricStream.decrypt(new ByteArrayInputStream(c), dec, pw, pool));
+                Assert.assertArrayEquals(m, dec.toByteArray());
+
+                c[c.length / 2] ^= 1;
+                Assert.assertFalse(SymmetricStream.decrypt(new ByteArrayInputStream(c), new ByteArrayOutputStream(), pw, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // decrypted ranges match the plaintext at segment boundaries, and a tampered segment fails only the ranges it overlaps
+    @Test
+    public void testSymmetricStreamDecryptRange() throws IOException {
+        byte[] pw = "password".getBytes();
+        byte[] m = Arrays.copyOf(sampleData(200), 1000);
+        ByteArrayOutputStream crypt = new ByteArrayOutputStream();
+        SymmetricStream.encrypt(new ByteArrayInputStream(m), crypt, pw, 64);
+        byte[] c = crypt.toByteArray();
+        Path path = Files.createTempFile("range", ".enc");
+        try {
+            Files.write(path, c);
+            int[][] ranges = {{0, 0}, {0, 1000}, {63, 2}, {64, 64}, {500, 300}, {960, 40}, {999, 1}, {1000, 0}};
+            for (int[] r : ranges) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(m, r[0], r[0] + r[1]),
+                        SymmetricStream.decryptRange(path, r[0], r[1], pw));
+            }
+            Assert.assertNull(SymmetricStream.decryptRange(path, 990, 11, pw));
+
+            // flip a bit in segment 3, which holds plaintext bytes 192 to 255
+            c[SymmetricStream.HEADER_LENGTH + 3 * (64 + 64) + 5] ^= 1;
+            Files.write(path, c);
+            Assert.assertNull(SymmetricStream.decryptRange(path, 250, 10, pw));
+            Assert.assertArrayEquals(Arrays.copyOfRange(m, 0, 192), SymmetricStream.decryptRange(path, 0, 192, pw));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // mapped files are absorbed like arrays, and mapped DHIES cryptograms round-trip through the array API
+    @Test
+    public void testMappedIO() throws IOException {
+        byte[] m = Arrays.copyOf(sampleData(200), 1001);
+        Path path = Files.createTempFile("mapped", ".bin");
+        try {
+            MappedIO.write(path, m);
+            KMACXOF256 kmac = new KMACXOF256(sampleKey(), "D".getBytes());
+            MappedIO.absorb(kmac, path);
+            Assert.assertArrayEquals(KMACXOF256.KMACXOF256(sampleKey(), m, 512, "D".getBytes()), kmac.doFinal(512));
+
+            // a direct buffer starting off a lane boundary
+            ByteBuffer direct = ByteBuffer.allocateDirect(m.length);
+            direct.put(m).position(3);
+            kmac.update(direct);
+            Assert.assertArrayEquals(KMACXOF256.KMACXOF256(sampleKey(), Arrays.copyOfRange(m, 3, m.length), 512,
+                    "D".getBytes()), kmac.doFinal(512));
+
+            KeyPair pair = SchnorrDHIES.keyPair("password");
+            byte[] signature = SchnorrDHIES.sign(MappedIO.map(path), "password");
+            Assert.assertArrayEquals(SchnorrDHIES.sign(m, "password"), signature);
+            Assert.assertTrue(SchnorrDHIES.verify(signature, MappedIO.map(path), pair.publicKey));
+
+            ByteBuffer out = MappedIO.create(path, m.length + SchnorrDHIES.OVERHEAD);
+            SchnorrDHIES.encrypt(ByteBuffer.wrap(m), pair.publicKey, out);
+            Assert.assertArrayEquals(m, SchnorrDHIES.decrypt(MappedIO.read(path), "password"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // files can be encrypted and decrypted in place, and a failed decryption leaves the file untouched
+    @Test
+    public void testInPlaceFiles() throws IOException {
+        byte[] m = Arrays.copyOf(sampleData(200), 100_000);
+        byte[] pw = "password".getBytes();
+        Path path = Files.createTempFile("inplace", ".txt");
+        try {
+            Files.write(path, m);
+            Symmetric.encryptFile(path, path, pw, ForkJoinPool.commonPool());
+            Assert.assertTrue(SymmetricStream.isSegmented(path));
+            byte[] c = Files.readAllBytes(path);
+            Assert.assertFalse(Symmetric.decryptSegmented(path, path, "wrong".getBytes(), ForkJoinPool.commonPool()));
+            Assert.assertArrayEquals(c, Files.readAllBytes(path));
+            Assert.assertTrue(Symmetric.decryptSegmented(path, path, pw, ForkJoinPool.commonPool()));
+            Assert.assertArrayEquals(m, Files.readAllBytes(path));
+
+            // the input is read onto the heap rather than mapped when it is also the output
+            Assert.assertFalse(MappedIO.mapInput(path, path).isDirect());
+            KeyPair key = SchnorrDHIES.keyPair("password");
+            Asymmetric.encryptFile(MappedIO.mapInput(path, path), PublicKeyCache.get(key.publicKey.getBytes()), path);
+            Assert.assertEquals(m.length + SchnorrDHIES.OVERHEAD, Files.size(path));
+            Assert.assertNull(Asymmetric.decryptFile(MappedIO.mapInput(path, path), "wrong", path));
+            Assert.assertEquals(m.length + SchnorrDHIES.OVERHEAD, Files.size(path));
+            Assert.assertNotNull(Asymmetric.decryptFile(MappedIO.mapInput(path, path), "password", path));
+            Assert.assertArrayEquals(m, Files.readAllBytes(path));
+            Assert.assertFalse(Files.exists(MappedIO.partial(path)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    // the DRBG is reproducible from its inputs, bulk nonces equal one request split up, and reseeding changes the stream
+    @Test
+    public void testKeccakDRBG() {
+        KeccakDRBG a = new KeccakDRBG(sampleKey(), "p".getBytes(), false);
+        KeccakDRBG b = new KeccakDRBG(sampleKey(), "p".getBytes(), false);
+        byte[] x = new byte[192];
+        a.nextBytes(x);
+        byte[][] nonces = b.nonces(3, 64);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(x, 64 * i, 64 * i + 64), nonces[i]);
+        }
+        a.nextBytes(x);
+        byte[] y = new byte[192];
+        b.nextBytes(y);
+        Assert.assertArrayEquals(x, y);
+        b.reseed();
+        a.nextBytes(x);
+        b.nextBytes(y);
+        Assert.assertFalse(Arrays.equals(x, y));
+
+        new KeccakDRBG(sampleKey(), "p".getBytes(), false).nextBytes(x);
+        new KeccakDRBG(sampleKey(), "q".getBytes(), false).nextBytes(y);
+        Assert.assertFalse(Arrays.equals(x, y));
+    }
+
+    // encrypt-then-MAC cryptograms reject tampering before decrypting, and original (Z, c, t) cryptograms still decrypt
+    @Test
+    public void testEncryptThenMac() throws IOException {
+        KeyPair pair = SchnorrDHIES.keyPair("password");
+        byte[] cryptogram = SchnorrDHIES.encrypt("message".getBytes(), pair.publicKey);
+        Assert.assertArrayEquals(SchnorrDHIES.HEADER, Arrays.copyOf(cryptogram, SchnorrDHIES.HEADER.length));
+        Assert.assertArrayEquals(new byte[0], SchnorrDHIES.decrypt(SchnorrDHIES.encrypt(new byte[0], pair.publicKey), "password"));
+
+        byte[] c = cryptogram.clone();
+        c[SchnorrDHIES.HEADER.length + 58] ^= 1;
+        byte[] out = new byte[7];
+        Assert.assertFalse(SchnorrDHIES.decrypt(ByteBuffer.wrap(c), "password", ByteBuffer.wrap(out)));
+        Assert.assertArrayEquals(new byte[7], out);
+
+        // an original Z || c || t cryptogram of "message", with t over m
+        byte[] legacy = hexToBytes("00BAED4DB9F831807B4708F56557667CB4DE7DD57C066D655FA5153B59618156EB2002CB0E765A20C1B9C0453EB91F"
+                + "17CCFF9E2ABD6B52CB5001F381B83020F750FE8969ADACF1FB2B09436229F01044C214B7A88321D80DFD17868150C0045"
+                + "CEC27D738704E938B2697A2FF75D4EAF86D533F61145EB11FDD21F01DE52CFCAD46");
+        Assert.assertArrayEquals("message".getBytes(), SchnorrDHIES.decrypt(legacy, "password"));
+
+        byte[] pw = "password".getBytes();
+        byte[] m = sampleData(100);
+        for (byte version : new byte[] {SymmetricStream.VERSION_SEGMENTED, SymmetricStream.VERSION_ENCRYPT_THEN_MAC}) {
+            ByteArrayOutputStream crypt = new ByteArrayOutputStream();
+            SymmetricStream.encrypt(new ByteArrayInputStream(m), crypt, pw, 32, null, version);
+            byte[] bytes = crypt.toByteArray();
+            Assert.assertEquals(version, bytes[SymmetricStream.MAGIC.length]);
+            ByteArrayOutputStream dec = new ByteArrayOutputStream();
+            Assert.assertTrue(SymmetricStream.decrypt(new ByteArrayInputStream(bytes), dec, pw));
+            Assert.assertArrayEquals(m, dec.toByteArray());
+            bytes[SymmetricStream.HEADER_LENGTH + 1] ^= 1;
+            Assert.assertFalse(SymmetricStream.decrypt(new ByteArrayInputStream(bytes), new ByteArrayOutputStream(), pw));
+        }
+    }
+
+    // a directory tree round-trips through bulk encryption and decryption, and a corrupted file fails on its own
+    @Test
+    public void testBulkCrypt() throws IOException {
+        Path root = Files.createTempDirectory("bulk");
+        Path plain = root.resolve("plain");
+        Path encrypted = root.resolve("encrypted");
+        Path decrypted = root.resolve("decrypted");
+        Files.createDirectories(plain.resolve("a/b"));
+        String[] names = {"empty", "a/small", "a/b/large"};
+        int[] sizes = {0, 100, 200_000};
+        for (int i = 0; i < names.length; i++) {
+            Files.write(plain.resolve(names[i]), Arrays.copyOf(sampleData(200), sizes[i]));
+        }
+        byte[] pw = "password".getBytes();
+        try {
+            List<BulkCrypt.Result> results = BulkCrypt.run(BulkCrypt.Mode.ENCRYPT, plain, encrypted, pw, 2, 64 << 10);
+            Assert.assertEquals(3, results.size());
+            Assert.assertTrue(results.stream().allMatch(r -> r.ok));
+
+            Path large = encrypted.resolve("a/b/large" + BulkCrypt.SUFFIX);
+            byte[] c = Files.readAllBytes(large);
+            c[c.length - 1] ^= 1;
+            Files.write(large, c);
+
+            results = BulkCrypt.run(BulkCrypt.Mode.DECRYPT, encrypted, decrypted, pw, 2, 64 << 10);
+            Assert.assertEquals(3, results.size());
+            for (int i = 0; i < names.length; i++) {
+                Path out = decrypted.resolve(names[i]);
+                if (names[i].endsWith("large")) {
+                    Assert.assertFalse(Files.exists(out));
+                    Assert.assertFalse(Files.exists(out.resolveSibling("large.part")));
+                } else {
+                    Assert.assertArrayEquals(Files.readAllBytes(plain.resolve(names[i])), Files.readAllBytes(out));
+                }
+            }
+            Assert.assertEquals(1, results.stream().filter(r -> !r.ok).count());
+        } finally {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // a target inside the source is rejected, and a file without the suffix is never decrypted over itself
+    @Test
+    public void testBulkCryptTargetInsideSource() throws IOException {
+        Path root = Files.createTempDirectory("bulk");
+        Path plain = root.resolve("plain");
+        Files.createDirectories(plain);
+        byte[] m = sampleData(100);
+        Files.write(plain.resolve("notes"), m);
+        byte[] pw = "password".getBytes();
+        try {
+            try {
+                BulkCrypt.run(BulkCrypt.Mode.DECRYPT, plain, plain, pw, 1, 64 << 10);
+                Assert.fail("target equal to source was accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                BulkCrypt.run(BulkCrypt.Mode.ENCRYPT, plain, plain.resolve("out/../encrypted"), pw, 1, 64 << 10);
+                Assert.fail("target inside source was accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            Assert.assertFalse(Files.exists(plain.resolve("encrypted")));
+
+            Path out = root.resolve("decrypted");
+            List<BulkCrypt.Result> results = BulkCrypt.run(BulkCrypt.Mode.DECRYPT, plain, out, pw, 1, 64 << 10);
+            Assert.assertEquals(1, results.size());
+            Assert.assertFalse(results.get(0).ok);
+            Assert.assertFalse(Files.exists(out.resolve("notes")));
+            Assert.assertArrayEquals(m, Files.readAllBytes(plain.resolve("notes")));
+        } finally {
+            try (Stream<Path> walk = Files.walk(root)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // GF448 agrees with BigInteger arithmetic mod p, including at the edges of the limb representation
+    @Test
+    public void testGF448() {
+        BigInteger p = Ed448GPoint.p;
+        BigInteger[] edges = {BigInteger.ZERO, BigInteger.ONE, p.subtract(BigInteger.ONE), BigInteger.ONE.shiftLeft(224)};
+        Random random = new Random(448);
+        for (int i = 0; i < 200; i++) {
+            BigInteger a = i < 16 ? edges[i / 4] : new BigInteger(448, random).mod(p);
+            BigInteger b = i < 16 ? edges[i % 4] : new BigInteger(448, random).mod(p);
+            GF448 x = new GF448(a);
+            GF448 y = new GF448(b);
+            Assert.assertEquals(a.add(b).mod(p), new GF448().add(x, y).toBigInteger());
+            Assert.assertEquals(a.subtract(b).mod(p), new GF448().sub(x, y).toBigInteger());
+            Assert.assertEquals(a.multiply(b).mod(p), new GF448().mul(x, y).toBigInteger());
+            Assert.assertEquals(a.multiply(a).mod(p), new GF448().sqr(x).toBigInteger());
+            Assert.assertEquals(a.negate().mod(p), new GF448().neg(x).toBigInteger());
+            x.mul(x, y).sub(x, y).sqr(x);
+            Assert.assertEquals(a.multiply(b).subtract(b).pow(2).mod(p), x.toBigInteger());
+        }
+        for (int i = 0; i < 10; i++) {
+            BigInteger a = new BigInteger(448, random).mod(p);
+            Assert.assertEquals(a.modInverse(p), new GF448().inv(new GF448(a)).toBigInteger());
+            BigInteger root = new GF448().sqrtCandidate(new GF448(a.multiply(a))).toBigInteger();
+            Assert.assertEquals(a.multiply(a).mod(p), root.multiply(root).mod(p));
+        }
+    }
+
+    // projective doubling and unified addition agree with the affine formulas, including for the neutral point
+    @Test
+    public void testProjective() {
+        Ed448GPoint P = G.multiply(new BigInteger("123456789"));
+        Ed448Projective Q = new Ed448Projective(P);
+        Ed448Projective doubled = new Ed448Projective().dbl(Q);
+        Assert.assertTrue(doubled.equals(new Ed448Projective().add(Q, Q)));
+        Assert.assertTrue(doubled.toAffine().equals(P.add(P)));
+        Assert.assertTrue(new Ed448Projective().add(doubled, Q).toAffine().equals(P.add(P).add(P)));
+        Assert.assertTrue(new Ed448Projective().add(Q, new Ed448Projective()).equals(Q));
+        Assert.assertTrue(new Ed448Projective().add(Q, new Ed448Projective().neg(Q)).toAffine().equals(new Ed448GPoint()));
+        Assert.assertFalse(doubled.equals(Q));
+    }
+
+    // the fixed-base table gives the same multiples of G as the generic multiplication, for scalars of any size and sign
+    @Test
+    public void testBaseTable() {
+        BigInteger r = Ed448GPoint.r;
+        Random random = new Random(21);
+        BigInteger[] scalars = {BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(8), r.subtract(BigInteger.ONE), r,
+                BigInteger.ONE.shiftLeft(445), new BigInteger(446, random), new BigInteger(512, random), BigInteger.valueOf(-3)};
+        for (BigInteger k : scalars) {
+            Assert.assertTrue(Ed448BaseTable.multiply(k).equals(G.multiply(k.mod(r))));
+        }
+    }
+
+    // the width-4 NAF and the constant-time window multiplication agree with repeated addition and with each other
+    @Test
+    public void testWindowMultiply() {
+        Ed448GPoint P = G.multiply(new BigInteger("987654321"));
+        Ed448GPoint sum = new Ed448GPoint();
+        for (int k = 0; k < 40; k++) {
+            Assert.assertTrue(P.multiply(BigInteger.valueOf(k)).equals(sum));
+            Assert.assertTrue(P.multiplyConstantTime(BigInteger.valueOf(k)).equals(sum));
+            Assert.assertTrue(P.multiply(BigInteger.valueOf(-k)).equals(sum.opposite()));
+            sum = sum.add(P);
+        }
+        Random random = new Random(22);
+        for (int i = 0; i < 5; i++) {
+            BigInteger k = new BigInteger(446, random);
+            Assert.assertTrue(P.multiply(k).equals(P.multiplyConstantTime(k)));
+        }
+    }
+
+    // a joint double-scalar multiplication equals the sum of the two separate products, for G and for any other point
+    @Test
+    public void testMultiplyAdd() {
+        Random random = new Random(23);
+        Ed448GPoint P = G.multiply(new BigInteger(446, random));
+        Ed448GPoint Q = G.multiply(new BigInteger(446, random));
+        Ed448Window windowP = new Ed448Window(new Ed448Projective(P));
+        Ed448Window windowQ = new Ed448Window(new Ed448Projective(Q));
+        for (int i = 0; i < 4; i++) {
+            BigInteger a = new BigInteger(446, random);
+            BigInteger b = i == 3 ? new BigInteger(446, random).negate() : new BigInteger(446, random);
+            Assert.assertTrue(Ed448BaseTable.multiplyAdd(a, b, windowQ).toAffine().equals(G.multiply(a).add(Q.multiply(b))));
+            Assert.assertTrue(Ed448Window.multiplyAdd(a, windowP, b, windowQ).toAffine().equals(P.multiply(a).add(Q.multiply(b))));
+        }
+    }
+
+    // batch verification accepts exactly the signatures that verify one at a time, with keys repeated across the batch
+    @Test
+    public void testVerifyBatch() {
+        int n = 40;
+        KeyPair[] keyPairs = {SchnorrDHIES.keyPair("alice"), SchnorrDHIES.keyPair("bob"), SchnorrDHIES.keyPair("carol")};
+        String[] passwords = {"alice", "bob", "carol"};
+        byte[][] signatures = new byte[n][];
+        byte[][] messages = new byte[n][];
+        Ed448GPoint[] keys = new Ed448GPoint[n];
+        for (int i = 0; i < n; i++) {
+            messages[i] = ("message " + i).getBytes();
+            signatures[i] = SchnorrDHIES.sign(messages[i], passwords[i % 3]);
+            keys[i] = keyPairs[i % 3].publicKey;
+        }
+        messages[5] = "tampered".getBytes();
+        signatures[17][70] ^= 1;
+        signatures[23] = new byte[10];
+        keys[31] = keyPairs[(31 + 1) % 3].publicKey;
+        keys[36] = new Ed448GPoint(BigInteger.ONE, BigInteger.ONE);
+
+        boolean[] valid = SchnorrDHIES.verifyBatch(signatures, messages, keys);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(i != 5 && i != 17 && i != 23 && i != 31 && i != 36, valid[i]);
+            Assert.assertEquals(SchnorrDHIES.verify(signatures[i], messages[i], keys[i]), valid[i]);
+        }
+    }
+
+    // cached keys are decoded once, share their window, reject encodings off the curve, and encrypt and verify as before
+    @Test
+    public void testPublicKeyCache() {
+        KeyPair pair = SchnorrDHIES.keyPair("cached");
+        byte[] encoded = pair.publicKey.getBytes();
+        PublicKeyCache.DecodedKey key = PublicKeyCache.get(encoded);
+        Assert.assertTrue(key.point.equals(pair.publicKey));
+        Assert.assertSame(key, PublicKeyCache.get(encoded.clone()));
+        Assert.assertSame(key.window(), PublicKeyCache.get(encoded).window());
+
+        byte[] offCurve = encoded.clone();
+        offCurve[30] ^= 1;
+        Assert.assertNull(PublicKeyCache.get(offCurve));
+        Assert.assertNull(PublicKeyCache.get(new byte[1]));
+
+        byte[] m = "message".getBytes();
+        byte[] encrypted = new byte[m.length + SchnorrDHIES.OVERHEAD];
+        SchnorrDHIES.encrypt(ByteBuffer.wrap(m), key, ByteBuffer.wrap(encrypted));
+        Assert.assertArrayEquals(m, SchnorrDHIES.decrypt(encrypted, "cached"));
+        byte[] signature = SchnorrDHIES.sign(m, "cached");
+        Assert.assertTrue(SchnorrDHIES.verify(signature, ByteBuffer.wrap(m), key));
+        Assert.assertFalse(SchnorrDHIES.verify(signature, ByteBuffer.wrap("other".getBytes()), key));
+    }
 }